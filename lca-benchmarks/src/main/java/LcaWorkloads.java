@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+// Builds benchmark trees and DAGs and runs the LCA methods on them.
+//
+// The library lives in the default package, which classes in a named package cannot refer to,
+// and JMH refuses benchmarks in the default package. This class bridges the two: it sits in the
+// default package next to the library, and the benchmarks in lca.bench call its static methods
+// through method handles (see lca.bench.Workloads). Structures cross the bridge as Object.
+//
+// Every generated node holds a distinct value 0 .. size-1, so queries are plain ints in that range.
+public class LcaWorkloads {
+
+    private LcaWorkloads() {
+    }
+
+    /* Trees ------------------- */
+
+    // shape: RANDOM, SKEWED (a left-leaning chain), COMPLETE (heap order) or WIDE (filled level
+    // by level but with random gaps, so it is shallow and bushy without being complete)
+    public static Object tree(String shape, int size, long seed) {
+        Random random = new Random(seed);
+        BinaryTreeNode[] nodes = new BinaryTreeNode[size];
+        BinaryTree tree = new BinaryTree(0);
+        nodes[0] = tree.root();
+
+        switch (shape) {
+            case "RANDOM": {
+                // attach each node under a random node that still has a free slot
+                BinaryTreeNode[] open = new BinaryTreeNode[size];
+                int openCount = 0;
+                open[openCount++] = nodes[0];
+
+                for (int val = 1; val < size; val++) {
+                    int i = random.nextInt(openCount);
+                    BinaryTreeNode parent = open[i];
+                    boolean left = parent.getlChild() == null && (parent.getrChild() != null || random.nextBoolean());
+
+                    if (left) {
+                        parent.setLChild(val);
+                        nodes[val] = parent.getlChild();
+                    } else {
+                        parent.setRChild(val);
+                        nodes[val] = parent.getrChild();
+                    }
+                    if (parent.getlChild() != null && parent.getrChild() != null) {
+                        open[i] = open[--openCount];
+                    }
+                    open[openCount++] = nodes[val];
+                }
+                break;
+            }
+            case "SKEWED":
+                for (int val = 1; val < size; val++) {
+                    nodes[val - 1].setLChild(val);
+                    nodes[val] = nodes[val - 1].getlChild();
+                }
+                break;
+            case "COMPLETE":
+                for (int val = 1; val < size; val++) {
+                    BinaryTreeNode parent = nodes[(val - 1) / 2];
+                    if (val % 2 == 1) {
+                        parent.setLChild(val);
+                        nodes[val] = parent.getlChild();
+                    } else {
+                        parent.setRChild(val);
+                        nodes[val] = parent.getrChild();
+                    }
+                }
+                break;
+            case "WIDE": {
+                // walk the current level, giving each node a child on each side with probability 3/4
+                int levelStart = 0;
+                int levelEnd = 1;
+                int val = 1;
+                while (val < size) {
+                    for (int i = levelStart; i < levelEnd && val < size; i++) {
+                        if (random.nextInt(4) != 0) {
+                            nodes[i].setLChild(val);
+                            nodes[val++] = nodes[i].getlChild();
+                        }
+                        if (val < size && random.nextInt(4) != 0) {
+                            nodes[i].setRChild(val);
+                            nodes[val++] = nodes[i].getrChild();
+                        }
+                    }
+                    if (val == levelEnd) {
+                        // the whole level came up empty; force one child so the tree keeps growing
+                        nodes[levelStart].setLChild(val);
+                        nodes[val++] = nodes[levelStart].getlChild();
+                    }
+                    levelStart = levelEnd;
+                    levelEnd = val;
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown tree shape " + shape);
+        }
+        return tree;
+    }
+
+    public static int treeLca(Object tree, int val1, int val2) {
+        return ((BinaryTree) tree).getLowestCommonAncestor(val1, val2).getVal();
+    }
+
+    public static Object eulerTourIndex(Object tree) {
+        return ((BinaryTree) tree).buildEulerTourIndex();
+    }
+
+    public static int eulerTourLca(Object index, int val1, int val2) {
+        return ((EulerTourIndex) index).getLowestCommonAncestor(val1, val2).getVal();
+    }
+
+    public static Object liftingIndex(Object tree) {
+        return ((BinaryTree) tree).ancestorIndex();
+    }
+
+    public static int liftingLca(Object index, int val1, int val2) {
+        return ((BinaryLiftingIndex) index).getLowestCommonAncestor(val1, val2).getVal();
+    }
+
+    public static int[] treeBatchLca(Object tree, int[] vals1, int[] vals2) {
+        return ((BinaryTree) tree).getLowestCommonAncestors(vals1, vals2);
+    }
+
+    /* DAGs -------------------- */
+
+    // shape: RANDOM (1-3 random earlier parents per node), SKEWED (a long path with short skip
+    // edges), COMPLETE (layers where each node feeds two nodes of the next layer) or WIDE (a
+    // handful of roots fanning out to one very wide layer)
+    public static Object dag(String shape, int size, long seed) {
+        Random random = new Random(seed);
+        ArrayList<Node> nodes = new ArrayList<>(size);
+        for (int val = 0; val < size; val++) {
+            nodes.add(new Node(val, null, null));
+        }
+
+        switch (shape) {
+            case "RANDOM":
+                for (int val = 1; val < size; val++) {
+                    int parents = 1 + random.nextInt(3);
+                    for (int p = 0; p < parents; p++) {
+                        link(nodes, random.nextInt(val), val);
+                    }
+                }
+                break;
+            case "SKEWED":
+                for (int val = 1; val < size; val++) {
+                    link(nodes, val - 1, val);
+                    if (val >= 3 && random.nextInt(8) == 0) {
+                        link(nodes, val - 3, val);
+                    }
+                }
+                break;
+            case "COMPLETE": {
+                int width = Math.max(2, (int) Math.sqrt(size));
+                for (int val = width; val < size; val++) {
+                    int above = val - width;
+                    link(nodes, above, val);
+                    link(nodes, above - above % width + (above + 1) % width, val);
+                }
+                break;
+            }
+            case "WIDE": {
+                int roots = Math.min(size, 8);
+                for (int val = roots; val < size; val++) {
+                    link(nodes, random.nextInt(roots), val);
+                    link(nodes, random.nextInt(roots), val);
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown DAG shape " + shape);
+        }
+        return new DirectedAcyclicGraph(nodes);
+    }
+
+    private static void link(ArrayList<Node> nodes, int parent, int child) {
+        if (nodes.get(parent).addChild(nodes.get(child))) {
+            nodes.get(child).addParent(nodes.get(parent));
+        }
+    }
+
+    // number of LCAs found, so the result cannot be optimised away
+    public static int dagLcas(Object dag, int val1, int val2) {
+        DirectedAcyclicGraph graph = (DirectedAcyclicGraph) dag;
+        return graph.getLCAs(graph.getNodeWithValue(val1), graph.getNodeWithValue(val2)).size();
+    }
+
+    public static Object compactDag(Object dag) {
+        return ((DirectedAcyclicGraph) dag).freeze();
+    }
+
+    // node values equal ids in generated graphs, so values can be passed straight through
+    public static int compactDagLcas(Object compactDag, int val1, int val2) {
+        return ((CompactDag) compactDag).getLCAs(val1, val2).length;
+    }
+
+    public static int[][] dagBatchLcas(Object dag, int[] vals1, int[] vals2) {
+        return ((DirectedAcyclicGraph) dag).getLCAs(vals1, vals2);
+    }
+}
@@ -0,0 +1,66 @@
+package lca.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Per-query cost of the DirectedAcyclicGraph LCA methods. Run with -prof gc to see allocation
+// per query.
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g"})
+@State(Scope.Thread)
+public class DagLcaBenchmark {
+
+    @Param({"RANDOM", "SKEWED", "COMPLETE", "WIDE"})
+    public String shape;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private Object dag;
+    private Object compactDag;
+    private Queries queries;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        try {
+            dag = (Object) Workloads.DAG.invokeExact(shape, size, 42L);
+            compactDag = (Object) Workloads.COMPACT_DAG.invokeExact(dag);
+        } catch (Throwable t) {
+            throw Workloads.rethrow(t);
+        }
+        queries = new Queries(size, 7L);
+    }
+
+    @Benchmark
+    public int getLCAs() throws Throwable {
+        int i = queries.next();
+        return (int) Workloads.DAG_LCAS.invokeExact(dag, queries.vals1[i], queries.vals2[i]);
+    }
+
+    @Benchmark
+    public int compactDag() throws Throwable {
+        int i = queries.next();
+        return (int) Workloads.COMPACT_DAG_LCAS.invokeExact(compactDag, queries.vals1[i], queries.vals2[i]);
+    }
+
+    // the whole query ring as one batch; divide by Queries.COUNT for the per-query figure
+    @Benchmark
+    public int[][] batch() throws Throwable {
+        return (int[][]) Workloads.DAG_BATCH_LCAS.invokeExact(dag, queries.vals1, queries.vals2);
+    }
+}
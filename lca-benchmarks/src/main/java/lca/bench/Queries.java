@@ -0,0 +1,29 @@
+package lca.bench;
+
+import java.util.Random;
+
+// A fixed ring of random query pairs over values 0 .. size-1, walked one pair per invocation so
+// every benchmark sees the same sequence without paying for random number generation.
+final class Queries {
+
+    static final int COUNT = 1 << 12;
+
+    final int[] vals1 = new int[COUNT];
+    final int[] vals2 = new int[COUNT];
+    private int next;
+
+    Queries(int size, long seed) {
+        Random random = new Random(seed);
+        for (int i = 0; i < COUNT; i++) {
+            vals1[i] = random.nextInt(size);
+            vals2[i] = random.nextInt(size);
+        }
+    }
+
+    // index of the next pair
+    int next() {
+        int i = next;
+        next = (i + 1) & (COUNT - 1);
+        return i;
+    }
+}
@@ -0,0 +1,48 @@
+package lca.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// One-off cost of building the tree LCA indexes.
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g"})
+@State(Scope.Benchmark)
+public class TreeIndexBuildBenchmark {
+
+    @Param({"RANDOM", "SKEWED", "COMPLETE", "WIDE"})
+    public String shape;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private Object tree;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        try {
+            tree = (Object) Workloads.TREE.invokeExact(shape, size, 42L);
+        } catch (Throwable t) {
+            throw Workloads.rethrow(t);
+        }
+    }
+
+    @Benchmark
+    public Object eulerTourIndex() throws Throwable {
+        return (Object) Workloads.EULER_TOUR_INDEX.invokeExact(tree);
+    }
+}
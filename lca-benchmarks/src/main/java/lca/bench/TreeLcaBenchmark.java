@@ -0,0 +1,73 @@
+package lca.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Per-query cost of the BinaryTree LCA methods. Run with -prof gc to see allocation per query.
+@BenchmarkMode({Mode.AverageTime, Mode.Throughput})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx16g"})
+@State(Scope.Thread)
+public class TreeLcaBenchmark {
+
+    @Param({"RANDOM", "SKEWED", "COMPLETE", "WIDE"})
+    public String shape;
+
+    @Param({"1000", "10000", "100000", "1000000", "10000000"})
+    public int size;
+
+    private Object tree;
+    private Object eulerTourIndex;
+    private Object liftingIndex;
+    private Queries queries;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        try {
+            tree = (Object) Workloads.TREE.invokeExact(shape, size, 42L);
+            eulerTourIndex = (Object) Workloads.EULER_TOUR_INDEX.invokeExact(tree);
+            liftingIndex = (Object) Workloads.LIFTING_INDEX.invokeExact(tree);
+        } catch (Throwable t) {
+            throw Workloads.rethrow(t);
+        }
+        queries = new Queries(size, 7L);
+    }
+
+    @Benchmark
+    public int pathBased() throws Throwable {
+        int i = queries.next();
+        return (int) Workloads.TREE_LCA.invokeExact(tree, queries.vals1[i], queries.vals2[i]);
+    }
+
+    @Benchmark
+    public int eulerTour() throws Throwable {
+        int i = queries.next();
+        return (int) Workloads.EULER_TOUR_LCA.invokeExact(eulerTourIndex, queries.vals1[i], queries.vals2[i]);
+    }
+
+    @Benchmark
+    public int binaryLifting() throws Throwable {
+        int i = queries.next();
+        return (int) Workloads.LIFTING_LCA.invokeExact(liftingIndex, queries.vals1[i], queries.vals2[i]);
+    }
+
+    // the whole query ring in one Tarjan pass; divide by Queries.COUNT for the per-query figure
+    @Benchmark
+    public int[] offlineBatch() throws Throwable {
+        return (int[]) Workloads.TREE_BATCH_LCA.invokeExact(tree, queries.vals1, queries.vals2);
+    }
+}
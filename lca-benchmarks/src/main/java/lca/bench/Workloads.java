@@ -0,0 +1,52 @@
+package lca.bench;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+// Method handles onto the default-package LcaWorkloads class. Held in static finals so the JIT
+// treats them as constants and inlines straight through invokeExact.
+final class Workloads {
+
+    private static final Class<?> WORKLOADS = load();
+
+    static final MethodHandle TREE = handle("tree", Object.class, String.class, int.class, long.class);
+    static final MethodHandle TREE_LCA = handle("treeLca", int.class, Object.class, int.class, int.class);
+    static final MethodHandle EULER_TOUR_INDEX = handle("eulerTourIndex", Object.class, Object.class);
+    static final MethodHandle EULER_TOUR_LCA = handle("eulerTourLca", int.class, Object.class, int.class, int.class);
+    static final MethodHandle LIFTING_INDEX = handle("liftingIndex", Object.class, Object.class);
+    static final MethodHandle LIFTING_LCA = handle("liftingLca", int.class, Object.class, int.class, int.class);
+    static final MethodHandle TREE_BATCH_LCA = handle("treeBatchLca", int[].class, Object.class, int[].class, int[].class);
+
+    static final MethodHandle DAG = handle("dag", Object.class, String.class, int.class, long.class);
+    static final MethodHandle DAG_LCAS = handle("dagLcas", int.class, Object.class, int.class, int.class);
+    static final MethodHandle COMPACT_DAG = handle("compactDag", Object.class, Object.class);
+    static final MethodHandle COMPACT_DAG_LCAS = handle("compactDagLcas", int.class, Object.class, int.class, int.class);
+    static final MethodHandle DAG_BATCH_LCAS = handle("dagBatchLcas", int[][].class, Object.class, int[].class, int[].class);
+
+    private Workloads() {
+    }
+
+    private static Class<?> load() {
+        try {
+            return Class.forName("LcaWorkloads");
+        } catch (ClassNotFoundException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle handle(String name, Class<?> returnType, Class<?>... parameterTypes) {
+        try {
+            return MethodHandles.publicLookup().findStatic(WORKLOADS, name, MethodType.methodType(returnType, parameterTypes));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Turns a checked Throwable from invokeExact into something a @Setup or @Benchmark can rethrow
+    static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) return (RuntimeException) t;
+        if (t instanceof Error) throw (Error) t;
+        return new RuntimeException(t);
+    }
+}
@@ -0,0 +1,194 @@
+import java.util.Arrays;
+
+// Binary-lifting ancestor table: up[k][v] is the 2^k-th ancestor of node id v (the root is its
+// own ancestor). Built in O(n log n) from a FlatTree and answers LCA, k-th ancestor and distance
+// queries in O(log n). Leaves can be appended one at a time, so the table can follow a tree that
+// keeps growing through insert.
+public class BinaryLiftingIndex {
+
+    private int[][] up;
+    private int[] depth;
+    private BinaryTreeNode[] nodes;
+    private int size;
+
+    private final IntIntHashMap idOfVal;
+    // BinaryTreeNode keeps Object's identity equals and hashCode, so this is an identity map
+    // whose lookups box nothing
+    private final ObjectIntHashMap<BinaryTreeNode> idOfNode;
+
+    public BinaryLiftingIndex(FlatTree tree) {
+        int n = tree.size();
+        int capacity = Math.max(16, n);
+
+        size = n;
+        nodes = Arrays.copyOf(tree.nodes, capacity);
+        depth = Arrays.copyOf(tree.depth, capacity);
+        idOfVal = new IntIntHashMap(capacity);
+        idOfNode = new ObjectIntHashMap<>(capacity);
+
+        int maxDepth = 0;
+        for (int id = 0; id < n; id++) {
+            idOfVal.putIfAbsent(tree.vals[id], id);
+            idOfNode.put(tree.nodes[id], id);
+            maxDepth = Math.max(maxDepth, depth[id]);
+        }
+
+        up = new int[levelsFor(maxDepth)][];
+        up[0] = new int[capacity];
+        for (int id = 0; id < n; id++) {
+            up[0][id] = tree.parent[id] == -1 ? id : tree.parent[id];
+        }
+        for (int k = 1; k < up.length; k++) {
+            up[k] = new int[capacity];
+            fillLevel(k, 0, n);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // returns the id of the first node holding val, or -1 if there is none
+    public int idOf(int val) {
+        return idOfVal.get(val);
+    }
+
+    public BinaryTreeNode node(int id) {
+        return nodes[id];
+    }
+
+    public int depth(int id) {
+        return depth[id];
+    }
+
+    // Adds child (a new leaf under parent) to the table in O(log n)
+    public void appendLeaf(BinaryTreeNode parent, BinaryTreeNode child) {
+        int parentId = idOfNode.get(parent);
+        if (parentId == -1) {
+            throw new IllegalArgumentException("Parent " + parent.getVal() + " is not in the index");
+        }
+
+        int id = size;
+        if (id == nodes.length) {
+            grow(nodes.length * 2);
+        }
+        size++;
+
+        nodes[id] = child;
+        depth[id] = depth[parentId] + 1;
+        idOfVal.putIfAbsent(child.getVal(), id);
+        idOfNode.put(child, id);
+
+        up[0][id] = parentId;
+        for (int k = 1; k < up.length; k++) {
+            up[k][id] = up[k - 1][up[k - 1][id]];
+        }
+
+        if (depth[id] >= 1 << up.length) {
+            addLevel();
+        }
+    }
+
+    // Returns the id of the k-th ancestor of id (k = 0 is the node itself), or -1 if the node
+    // is less than k levels deep
+    public int kthAncestorId(int id, int k) {
+        if (k < 0 || k > depth[id]) return -1;
+
+        for (int level = 0; k != 0; level++, k >>>= 1) {
+            if ((k & 1) != 0) {
+                id = up[level][id];
+            }
+        }
+        return id;
+    }
+
+    public int lowestCommonAncestorId(int id1, int id2) {
+        if (depth[id1] < depth[id2]) {
+            int tmp = id1;
+            id1 = id2;
+            id2 = tmp;
+        }
+
+        id1 = kthAncestorId(id1, depth[id1] - depth[id2]);
+        if (id1 == id2) return id1;
+
+        for (int k = up.length - 1; k >= 0; k--) {
+            if (up[k][id1] != up[k][id2]) {
+                id1 = up[k][id1];
+                id2 = up[k][id2];
+            }
+        }
+        return up[0][id1];
+    }
+
+    // number of edges on the path between the two nodes
+    public int distance(int id1, int id2) {
+        int lca = lowestCommonAncestorId(id1, id2);
+        return depth[id1] + depth[id2] - 2 * depth[lca];
+    }
+
+    /* Value-based queries ----- */
+
+    public BinaryTreeNode getLowestCommonAncestor(int val1, int val2) {
+        int id1 = idOf(val1);
+        int id2 = idOf(val2);
+
+        if (id1 == -1 || id2 == -1) return null;
+
+        return nodes[lowestCommonAncestorId(id1, id2)];
+    }
+
+    public BinaryTreeNode getKthAncestor(int val, int k) {
+        int id = idOf(val);
+        if (id == -1) return null;
+
+        int ancestor = kthAncestorId(id, k);
+        return ancestor == -1 ? null : nodes[ancestor];
+    }
+
+    // returns -1 if val is not in the tree
+    public int getDepth(int val) {
+        int id = idOf(val);
+        return id == -1 ? -1 : depth[id];
+    }
+
+    // returns -1 if either value is not in the tree
+    public int getDistance(int val1, int val2) {
+        int id1 = idOf(val1);
+        int id2 = idOf(val2);
+
+        if (id1 == -1 || id2 == -1) return -1;
+
+        return distance(id1, id2);
+    }
+
+    /* ------------------------- */
+
+    // enough levels to jump over the deepest node in one pass
+    private static int levelsFor(int maxDepth) {
+        return Math.max(1, 32 - Integer.numberOfLeadingZeros(maxDepth));
+    }
+
+    private void fillLevel(int k, int from, int to) {
+        int[] prev = up[k - 1];
+        int[] cur = up[k];
+        for (int id = from; id < to; id++) {
+            cur[id] = prev[prev[id]];
+        }
+    }
+
+    private void grow(int capacity) {
+        nodes = Arrays.copyOf(nodes, capacity);
+        depth = Arrays.copyOf(depth, capacity);
+        for (int k = 0; k < up.length; k++) {
+            up[k] = Arrays.copyOf(up[k], capacity);
+        }
+    }
+
+    private void addLevel() {
+        int k = up.length;
+        up = Arrays.copyOf(up, k + 1);
+        up[k] = new int[nodes.length];
+        fillLevel(k, 0, size);
+    }
+}
@@ -1,109 +1,555 @@
 import java.util.ArrayList;
-import java.util.Queue;
-import java.util.LinkedList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
 
 public class BinaryTree {
 
+    private static final ThreadLocal<TreePath[]> PATHS =
+            ThreadLocal.withInitial(() -> new TreePath[]{new TreePath(), new TreePath()});
+
     private BinaryTreeNode root;
+    private BinaryLiftingIndex ancestorIndex;
+    private IntObjectHashMap<BinaryTreeNode> nodeOfVal;    // built on first lookup
+
+    // level-order insertion cursor: the level being filled and the first node on it that may
+    // still have a free slot; null until the first insert, or after an out-of-order child add
+    private ArrayList<BinaryTreeNode> insertLevel;
+    private int insertPos;
+
+    // implicit storage: values in level order, children of index i at 2i+1 and 2i+2. Non-null
+    // only while the tree is in implicit mode, in which case root is null.
+    private int[] heap;
+    private int heapSize;
+    private volatile IntIntHashMap heapIndexOfVal;    // built on first value query
+    private IntObjectHashMap<BinaryTreeNode> heapViews;    // nodes handed out, by slot
+
+    private LcaCache<BinaryTreeNode> lcaCache;    // optional, cleared whenever the tree changes
+    private LcaTraceListener traceListener;       // null unless queries are being traced
+    private LcaMetrics metrics;                   // null unless queries are being measured
 
     /* Constructors ------------ */
 
     public BinaryTree(BinaryTreeNode root) {
         this.root = root;
+        adopt(root);
     }
 
     public BinaryTree(int rootVal) {
         this.root = new BinaryTreeNode(rootVal);
+        this.root.setTree(this);
     }
 
     public BinaryTree() {
         this.root = null;
     }
 
+    // An empty tree in implicit mode: values are kept in one int[] in level order instead of as
+    // BinaryTreeNode objects, and LCA queries become index arithmetic. Trees filled through
+    // insert/insertAll are always complete, so this costs 4 bytes per value. Queries that return
+    // nodes hand out views of array slots, created on first use and then reused, so the tree
+    // stays implicit while it is read. Only a setLChild/setRChild that would break completeness
+    // switches it to pointer storage, and the views become the nodes of the linked tree.
+    public static BinaryTree implicit() {
+        BinaryTree tree = new BinaryTree();
+        tree.heap = new int[16];
+        return tree;
+    }
+
+    public static BinaryTree implicit(int[] vals) {
+        BinaryTree tree = implicit();
+        tree.insertAll(vals);
+        return tree;
+    }
+
     /* ------------------------- */
 
+    public boolean isImplicit() {
+        return heap != null;
+    }
+
+    // the values in level order while in implicit mode, otherwise null
+    int[] implicitValues() {
+        return heap == null ? null : Arrays.copyOf(heap, heapSize);
+    }
+
     public BinaryTreeNode root() {
+        if (heap != null) {
+            return heapNode(0);
+        }
         return this.root;
     }
 
+    // Inserts val at the first free child slot in level order. The search resumes from a cursor
+    // kept between calls (the level being filled and the position in it), so each insert costs
+    // O(1) amortized instead of a BFS from the root. Adding a child anywhere other than at the
+    // cursor through setLChild/setRChild drops the cursor, and the next insert rebuilds it.
     public void insert(int val) {
 
+        if (heap != null) {
+            appendToHeap(val);
+            return;
+        }
+
         if (root == null) { // if root of subtree is null
             root = new BinaryTreeNode(val);
+            root.setTree(this);
+            ancestorIndex = null;
+            if (lcaCache != null) lcaCache.clear();
+            insertLevel = null;
+            if (nodeOfVal != null) nodeOfVal.putIfAbsent(val, root);
             return;
         }
 
-        Queue<BinaryTreeNode> queue = new LinkedList<BinaryTreeNode>();
-        queue.add(this.root);
-        BinaryTreeNode curBinaryTreeNode;
+        if (insertLevel == null) {
+            insertLevel = new ArrayList<>();
+            insertLevel.add(root);
+            insertPos = 0;
+        }
+
+        while (true) {
+            if (insertPos == insertLevel.size()) {
+                // every node on this level is full, so the next level is where the free slots are
+                ArrayList<BinaryTreeNode> nextLevel = new ArrayList<>(insertLevel.size() * 2);
+                for (BinaryTreeNode n : insertLevel) {
+                    nextLevel.add(n.getlChild());
+                    nextLevel.add(n.getrChild());
+                }
+                insertLevel = nextLevel;
+                insertPos = 0;
+            }
 
-        while (!queue.isEmpty()) {
-            curBinaryTreeNode = queue.peek();
-            queue.remove();
+            BinaryTreeNode curBinaryTreeNode = insertLevel.get(insertPos);
 
             if (curBinaryTreeNode.getlChild() == null) {
-//                System.out.println(String.format("setting lChild of %d: %d", curBinaryTreeNode.getVal(), val));
                 curBinaryTreeNode.setLChild(val);
-//                System.out.println(curBinaryTreeNode.getlChild().getVal());
-                break;
-            } else queue.add(curBinaryTreeNode.getlChild());
-
+                return;
+            }
             if (curBinaryTreeNode.getrChild() == null) {
-//                System.out.println(String.format("setting rChild of %d: %d", curBinaryTreeNode.getVal(), val));
                 curBinaryTreeNode.setRChild(val);
-//                System.out.println(curBinaryTreeNode.getrChild().getVal());
-                break;
-            } else queue.add(curBinaryTreeNode.getrChild());
+                return;
+            }
+            insertPos++;
         }
     }
-    public BinaryTreeNode getLowestCommonAncestor(int val1, int val2) {
 
-        ArrayList<BinaryTreeNode> pathToVal1 = new ArrayList<>();
-        ArrayList<BinaryTreeNode> pathToVal2 = new ArrayList<>();
+    // Inserts every value in level order. Into an empty tree this links a complete tree directly
+    // in heap order (children of vals[i] are vals[2i+1] and vals[2i+2]) in one linear pass.
+    public void insertAll(int[] vals) {
+        if (heap != null) {
+            if (heapSize + vals.length > heap.length) {
+                heap = Arrays.copyOf(heap, Math.max(heapSize + vals.length, heap.length * 2));
+            }
+            for (int val : vals) {
+                appendToHeap(val);
+            }
+            return;
+        }
+
+        if (root != null || vals.length == 0) {
+            for (int val : vals) {
+                insert(val);
+            }
+            return;
+        }
 
-        getPathTo(root, val1, pathToVal1);
-        getPathTo(root, val2, pathToVal2);
+        BinaryTreeNode[] nodes = new BinaryTreeNode[vals.length];
+        insert(vals[0]);
+        nodes[0] = root;
 
-        System.out.println("\n\nPATH1:");
-        for (BinaryTreeNode binaryTreeNode : pathToVal1) {
-            System.out.print(binaryTreeNode.getVal() + " ");
+        for (int i = 1; i < vals.length; i++) {
+            BinaryTreeNode parent = nodes[(i - 1) / 2];
+            if (i % 2 == 1) {
+                parent.setLChild(vals[i]);
+                nodes[i] = parent.getlChild();
+            } else {
+                parent.setRChild(vals[i]);
+                nodes[i] = parent.getrChild();
+            }
         }
-        System.out.println("\nPATH2:");
-        for (BinaryTreeNode binaryTreeNode : pathToVal2) {
-            System.out.print(binaryTreeNode.getVal() + " ");
+    }
+
+    public BinaryTreeNode getLowestCommonAncestor(int val1, int val2) {
+        LcaMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        if (lcaCache != null) {
+            BinaryTreeNode cached = lcaCache.get(val1, val2);
+            if (metrics != null) {
+                if (cached != null) metrics.recordCacheHit();
+                else metrics.recordCacheMiss();
+            }
+            if (cached != null) {
+                if (metrics != null) metrics.recordQuery(System.nanoTime() - start, 0, 0);
+                return cached;
+            }
         }
-        System.out.println("\n");
 
-        int i;
-        for (i = 0; i < pathToVal1.size() && i < pathToVal2.size(); i++) {
+        if (heap != null) {
+            return heapLowestCommonAncestor(val1, val2, start);
+        }
+
+        // path buffers are per thread and reused, so concurrent readers do not share them
+        TreePath[] paths = PATHS.get();
+        TreePath pathToVal1 = paths[0];
+        TreePath pathToVal2 = paths[1];
+
+        pathToVal1.find(root, val1);
+        pathToVal2.find(root, val2);
+
+        LcaTraceListener trace = traceListener;
+        if (trace != null) {
+            trace.treePaths(val1, pathToVal1.toList(), val2, pathToVal2.toList());
+        }
 
-            // System.out.println(path1.get(i) + " " + path2.get(i));
+        int i;
+        for (i = 0; i < pathToVal1.length() && i < pathToVal2.length(); i++) {
             if (!pathToVal1.get(i).equals(pathToVal2.get(i)))
                 break;
         }
 
-        return pathToVal1.get(i-1);
+        // no shared prefix means at least one value is not in the tree
+        BinaryTreeNode lca = i == 0 ? null : pathToVal1.get(i-1);
+        if (lcaCache != null) {
+            lcaCache.put(val1, val2, lca);
+        }
+        if (metrics != null) {
+            // every node after the root of a search was reached over one edge
+            int visited = pathToVal1.visited() + pathToVal2.visited();
+            metrics.recordQuery(System.nanoTime() - start, visited, Math.max(0, visited - 2));
+        }
+        return lca;
 
     }
 
-    private static boolean getPathTo(BinaryTreeNode root, int val, ArrayList<BinaryTreeNode> curPath) {
-        if (root == null) return false;
+    // LCA of a whole set of values, or null if any of them is not in the tree. One walk of the tree
+    // finds it, where chaining pairwise calls would search the tree again for every value; with an
+    // EulerTourIndex the same query is a single range lookup.
+    public BinaryTreeNode getLowestCommonAncestor(int... vals) {
+        if (vals.length == 0) {
+            throw new IllegalArgumentException("LCA of an empty set of nodes");
+        }
+        if (heap != null) {
+            int lca = -1;
+            for (int val : vals) {
+                int i = heapSlotOf(val);
+                if (i == -1) return null;
+                lca = lca == -1 ? i : heapLowestCommonAncestor(lca, i);
+            }
+            return heapNode(lca);
+        }
 
-        curPath.add(root);
-        if (root.getVal() == val) {
-            return true;
+        IntIntHashMap targets = new IntIntHashMap(vals.length);
+        for (int val : vals) {
+            targets.putIfAbsent(val, targets.size());
         }
+        return PATHS.get()[0].commonAncestor(root, targets, new boolean[targets.size()]);
+    }
 
-        if (root.getlChild() != null && getPathTo(root.getlChild(), val, curPath)) {
-            return true;
+    // Puts a cache of up to capacity results in front of getLowestCommonAncestor, so repeated
+    // pairs cost a hash probe. Any change to the tree empties it.
+    public LcaCache<BinaryTreeNode> enableLcaCache(int capacity) {
+        lcaCache = new LcaCache<>(capacity);
+        return lcaCache;
+    }
+
+    public void disableLcaCache() {
+        lcaCache = null;
+    }
+
+    // Reports the steps of getLowestCommonAncestor to listener; null turns tracing off again
+    public void setTraceListener(LcaTraceListener listener) {
+        traceListener = listener;
+    }
+
+    // Records getLowestCommonAncestor queries, cache lookups and index builds into metrics, which
+    // may be shared with other trees; null stops recording
+    public void setMetrics(LcaMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Builds an Euler-tour/sparse-table index over the current shape of the tree. Queries on the
+    // index run in O(1) without allocating, but it is a snapshot: nodes added afterwards are not
+    // visible to it, so rebuild it once the tree has changed. An implicit tree is walked through
+    // its views, which creates one for every slot but leaves the tree implicit.
+    public EulerTourIndex buildEulerTourIndex() {
+        long start = System.nanoTime();
+        EulerTourIndex index = new EulerTourIndex(root());
+        if (metrics != null) metrics.recordIndexBuild(System.nanoTime() - start);
+        return index;
+    }
+
+    // Same index as buildEulerTourIndex(), with the tour and sparse table built on pool
+    public EulerTourIndex buildEulerTourIndex(ForkJoinPool pool) {
+        long start = System.nanoTime();
+        EulerTourIndex index = new ParallelIndexBuilder(pool).eulerTourIndex(root());
+        if (metrics != null) metrics.recordIndexBuild(System.nanoTime() - start);
+        return index;
+    }
+
+    // Answers a whole batch of queries with a single walk of the tree (Tarjan's offline LCA).
+    // answers[i] is the value of the lca of vals1[i] and vals2[i].
+    public int[] getLowestCommonAncestors(int[] vals1, int[] vals2) {
+        if (heap != null) {
+            if (vals1.length != vals2.length) {
+                throw new IllegalArgumentException("Query arrays differ in length: "
+                        + vals1.length + " and " + vals2.length);
+            }
+            int[] answers = new int[vals1.length];
+            for (int i = 0; i < answers.length; i++) {
+                answers[i] = getLowestCommonAncestorValue(vals1[i], vals2[i]);
+            }
+            return answers;
+        }
+        return TarjanOfflineLca.lowestCommonAncestors(new FlatTree(root), vals1, vals2);
+    }
+
+    // Returns a binary-lifting index over this tree, building it on first use. The index is kept
+    // up to date as nodes are added through insert or setLChild/setRChild.
+    public BinaryLiftingIndex ancestorIndex() {
+        if (ancestorIndex == null) {
+            ancestorIndex = new BinaryLiftingIndex(new FlatTree(root()));
+        }
+        return ancestorIndex;
+    }
+
+    // Returns the node holding val in O(1), or null if there is none. Where a value occurs more
+    // than once this is the first such node in preorder at the time of the first lookup, or the
+    // first one added after it; an implicit tree always answers with the first in preorder, the
+    // node getLowestCommonAncestor picks in either mode.
+    public BinaryTreeNode getNodeWithValue(int val) {
+        if (heap != null) {
+            int i = heapSlotOf(val);
+            return i == -1 ? null : heapNode(i);
+        }
+        if (nodeOfVal == null) {
+            FlatTree flat = new FlatTree(root);
+            nodeOfVal = new IntObjectHashMap<>(Math.max(16, flat.size()));
+            for (int id = 0; id < flat.size(); id++) {
+                nodeOfVal.putIfAbsent(flat.vals[id], flat.nodes[id]);
+            }
         }
+        return nodeOfVal.get(val);
+    }
+
+    // Value of the lca of the nodes holding val1 and val2. In implicit mode this is index
+    // arithmetic and does not allocate; in pointer mode it is getLowestCommonAncestor.
+    // Throws NoSuchElementException if either value is not in the tree.
+    public int getLowestCommonAncestorValue(int val1, int val2) {
+        if (heap != null) {
+            int i = heapIndexOf(val1);
+            int j = heapIndexOf(val2);
+            return heap[heapLowestCommonAncestor(i, j)];
+        }
+
+        BinaryTreeNode lca = getLowestCommonAncestor(val1, val2);
+        if (lca == null) {
+            throw new NoSuchElementException("No node with value " + (getNodeWithValue(val1) == null ? val1 : val2));
+        }
+        return lca.getVal();
+    }
+
+    // LCA of two heap indices. Numbering from 1, a node's ancestors are the prefixes of its
+    // binary representation: bring both to the same depth, then drop the bits after the first
+    // one where they differ.
+    static int heapLowestCommonAncestor(int i, int j) {
+        int a = i + 1;
+        int b = j + 1;
+        int depthA = 31 - Integer.numberOfLeadingZeros(a);
+        int depthB = 31 - Integer.numberOfLeadingZeros(b);
+
+        if (depthA > depthB) a >>>= depthA - depthB;
+        else b >>>= depthB - depthA;
+
+        a >>>= 32 - Integer.numberOfLeadingZeros(a ^ b);
+        return a - 1;
+    }
+
+    // Whether heap index i comes before j in preorder. As in heapLowestCommonAncestor, bring both
+    // to the same depth: an ancestor comes first, otherwise the one on the left.
+    static boolean heapPreorderBefore(int i, int j) {
+        int a = i + 1;
+        int b = j + 1;
+        int depthA = 31 - Integer.numberOfLeadingZeros(a);
+        int depthB = 31 - Integer.numberOfLeadingZeros(b);
+
+        if (depthA > depthB) {
+            return a >>> (depthA - depthB) < b;
+        }
+        int up = b >>> (depthB - depthA);
+        return up == a ? a != b : a < up;
+    }
+
+    // the node-returning form of the lca in implicit mode, with getLowestCommonAncestor's cache,
+    // tracing and metrics; the arithmetic itself visits no nodes
+    private BinaryTreeNode heapLowestCommonAncestor(int val1, int val2, long start) {
+        int i = heapSlotOf(val1);
+        int j = heapSlotOf(val2);
+
+        LcaTraceListener trace = traceListener;
+        if (trace != null) {
+            trace.treePaths(val1, heapPath(i), val2, heapPath(j));
+        }
+
+        BinaryTreeNode lca = i == -1 || j == -1 ? null : heapNode(heapLowestCommonAncestor(i, j));
+        if (lcaCache != null) {
+            lcaCache.put(val1, val2, lca);
+        }
+        if (metrics != null) {
+            metrics.recordQuery(System.nanoTime() - start, 0, 0);
+        }
+        return lca;
+    }
+
+    // views from the root down to slot i, empty if i is -1
+    private ArrayList<BinaryTreeNode> heapPath(int i) {
+        ArrayList<BinaryTreeNode> path = new ArrayList<>();
+        for (int k = i; k >= 0; k = k == 0 ? -1 : (k - 1) / 2) {
+            path.add(heapNode(k));
+        }
+        Collections.reverse(path);
+        return path;
+    }
+
+    private int heapIndexOf(int val) {
+        int i = heapSlotOf(val);
+        if (i == -1) {
+            throw new NoSuchElementException("No node with value " + val);
+        }
+        return i;
+    }
+
+    // slot of the first node in preorder holding val, or -1. The map is filled in a local and
+    // published whole, so concurrent readers never see it half built.
+    private int heapSlotOf(int val) {
+        IntIntHashMap slots = heapIndexOfVal;
+        if (slots == null) {
+            slots = new IntIntHashMap(Math.max(16, heapSize));
+            for (int i = 0; i < heapSize; i++) {
+                addHeapSlot(slots, heap[i], i);
+            }
+            heapIndexOfVal = slots;
+        }
+        return slots.get(val);
+    }
+
+    private static void addHeapSlot(IntIntHashMap slots, int val, int i) {
+        int known = slots.get(val);
+        if (known == -1 || heapPreorderBefore(i, known)) {
+            slots.put(val, i);
+        }
+    }
+
+    // The view of slot i, or null past the end. Views are created on first request and kept, so
+    // a slot always comes back as the same node; readers may call this concurrently.
+    synchronized BinaryTreeNode heapNode(int i) {
+        if (heap == null || i >= heapSize) return null;
+
+        if (heapViews == null) {
+            heapViews = new IntObjectHashMap<>();
+        }
+        BinaryTreeNode view = heapViews.get(i);
+        if (view == null) {
+            view = new BinaryTreeNode(heap[i], this, i);
+            heapViews.put(i, view);
+        }
+        return view;
+    }
 
-        if (root.getrChild() != null && getPathTo(root.getrChild(), val, curPath)) {
+    // Called by the view parent instead of adding a child itself. Filling the next free slot in
+    // level order keeps the tree complete, so it is an append; a taken slot is refused like a
+    // taken child; anything else switches to pointer storage and adds the child there.
+    boolean setHeapChild(BinaryTreeNode parent, int slot, int val) {
+        if (slot < heapSize) {
+            return false;
+        }
+        if (slot == heapSize) {
+            appendToHeap(val);
             return true;
         }
+        materialize();
+        return slot % 2 == 1 ? parent.setLChild(val) : parent.setRChild(val);
+    }
+
+    private void appendToHeap(int val) {
+        if (heapSize == heap.length) {
+            heap = Arrays.copyOf(heap, heap.length * 2);
+        }
+        if (heapIndexOfVal != null) {
+            addHeapSlot(heapIndexOfVal, val, heapSize);
+        }
+        heap[heapSize++] = val;
+
+        if (lcaCache != null) {
+            lcaCache.clear();
+        }
+        if (heapSize == 1) {
+            ancestorIndex = null;
+        } else if (ancestorIndex != null) {
+            ancestorIndex.appendLeaf(heapNode((heapSize - 2) / 2), heapNode(heapSize - 1));
+        }
+    }
+
+    // Switches from implicit to pointer storage, linking the nodes in heap order. Views already
+    // handed out become the nodes at their slots, so they, the cache and the ancestor index stay
+    // valid. Only a write calls this, and the new tree is fully linked before it is published.
+    private synchronized void materialize() {
+        if (heap == null) return;
+
+        BinaryTreeNode[] nodes = new BinaryTreeNode[heapSize];
+        for (int i = 0; i < heapSize; i++) {
+            BinaryTreeNode view = heapViews == null ? null : heapViews.get(i);
+            nodes[i] = view != null ? view : new BinaryTreeNode(heap[i]);
+            nodes[i].setTree(this);
+        }
+        for (int i = 0; i < heapSize; i++) {
+            nodes[i].link(2 * i + 1 < heapSize ? nodes[2 * i + 1] : null,
+                    2 * i + 2 < heapSize ? nodes[2 * i + 2] : null);
+        }
+
+        root = heapSize == 0 ? null : nodes[0];
+        insertLevel = null;
+        heap = null;
+        heapSize = 0;
+        heapIndexOfVal = null;
+        heapViews = null;
+    }
+
+    // called by a node of this tree whenever it gains a child
+    void childAdded(BinaryTreeNode parent, BinaryTreeNode child) {
+        if (lcaCache != null) {
+            lcaCache.clear();
+        }
+        if (insertLevel != null && (insertPos >= insertLevel.size() || insertLevel.get(insertPos) != parent)) {
+            insertLevel = null;
+        }
+        if (nodeOfVal != null) {
+            nodeOfVal.putIfAbsent(child.getVal(), child);
+        }
+        if (ancestorIndex != null) {
+            ancestorIndex.appendLeaf(parent, child);
+        }
+    }
+
+    // marks every node under subtreeRoot as belonging to this tree
+    private void adopt(BinaryTreeNode subtreeRoot) {
+        if (subtreeRoot == null) return;
+        if (subtreeRoot.isHeapView()) {
+            // a view only works inside its own tree, so that tree has to link its nodes first
+            subtreeRoot.getTree().materialize();
+        }
+
+        ArrayList<BinaryTreeNode> stack = new ArrayList<>();
+        stack.add(subtreeRoot);
 
-        curPath.remove(curPath.size() - 1);
-        return false;
+        while (!stack.isEmpty()) {
+            BinaryTreeNode cur = stack.remove(stack.size() - 1);
+            cur.setTree(this);
+
+            if (cur.getlChild() != null) stack.add(cur.getlChild());
+            if (cur.getrChild() != null) stack.add(cur.getrChild());
+        }
     }
 
 }
@@ -16,6 +16,8 @@ public class BinaryTreeNode {
 
     private int val;
     private BinaryTreeNode lChild, rChild;
+    private BinaryTree tree;    // the tree this node belongs to, told about every new child
+    private int heapIndex = -1;    // slot in tree's implicit storage while this is a view of it
 
     public BinaryTreeNode(int val) {
         this.val = val;
@@ -23,35 +25,83 @@ public class BinaryTreeNode {
         this.rChild = null;
     }
 
+    // A view of slot heapIndex of an implicit tree: its children are looked up in the tree's
+    // array instead of being stored here, until the tree switches to pointer storage and links it
+    BinaryTreeNode(int val, BinaryTree tree, int heapIndex) {
+        this(val);
+        this.tree = tree;
+        this.heapIndex = heapIndex;
+    }
+
     public int getVal() {
         return this.val;
     }
 
     public BinaryTreeNode getlChild() {
+        if (this.heapIndex >= 0) {
+            return this.tree.heapNode(2 * this.heapIndex + 1);
+        }
         return this.lChild;
     }
 
     public BinaryTreeNode getrChild() {
+        if (this.heapIndex >= 0) {
+            return this.tree.heapNode(2 * this.heapIndex + 2);
+        }
         return this.rChild;
     }
 
     public boolean setLChild(int val) {
+        if (this.heapIndex >= 0) {
+            return this.tree.setHeapChild(this, 2 * this.heapIndex + 1, val);
+        }
         if (this.lChild != null) {
             return false;
         }
 
         this.lChild = new BinaryTreeNode(val);
+        childAdded(this.lChild);
         return true;
     }
 
     public boolean setRChild(int val) {
+        if (this.heapIndex >= 0) {
+            return this.tree.setHeapChild(this, 2 * this.heapIndex + 2, val);
+        }
         if (this.rChild != null) {
             return false;
         }
 
         this.rChild = new BinaryTreeNode(val);
+        childAdded(this.rChild);
         return true;
     }
 
+    BinaryTree getTree() {
+        return this.tree;
+    }
+
+    void setTree(BinaryTree tree) {
+        this.tree = tree;
+    }
+
+    boolean isHeapView() {
+        return this.heapIndex >= 0;
+    }
+
+    // turns a view into an ordinary node with the given children
+    void link(BinaryTreeNode lChild, BinaryTreeNode rChild) {
+        this.lChild = lChild;
+        this.rChild = rChild;
+        this.heapIndex = -1;
+    }
+
+    private void childAdded(BinaryTreeNode child) {
+        child.tree = this.tree;
+        if (this.tree != null) {
+            this.tree.childAdded(this, child);
+        }
+    }
+
 }
 
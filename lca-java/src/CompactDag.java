@@ -0,0 +1,268 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// Frozen, immutable form of a DirectedAcyclicGraph stored in compressed sparse rows.
+//
+// Nodes get dense ids in the order they appear in the source list, and the children and parents
+// of id v are the slices [offsets[v], offsets[v+1]) of one flat int[] per direction, kept in the
+// order of the original child lists. Compared to Node objects with boxed ArrayLists this needs a
+// few ints per node and one int per edge in each direction, and traversals walk contiguous memory.
+public class CompactDag implements DagView {
+
+    final int[] vals;
+    final int[] childOffsets;
+    final int[] childTargets;
+    final int[] parentOffsets;
+    final int[] parentTargets;
+    final IntIntHashMap idOfVal;
+
+    public CompactDag(ArrayList<Node> nodes) {
+        int n = nodes.size();
+
+        IdentityHashMap<Node, Integer> idOfNode = new IdentityHashMap<>(n);
+        for (int id = 0; id < n; id++) {
+            idOfNode.put(nodes.get(id), id);
+        }
+
+        vals = new int[n];
+        childOffsets = new int[n + 1];
+        for (int id = 0; id < n; id++) {
+            Node node = nodes.get(id);
+            vals[id] = node.getVal();
+
+            int count = 0;
+            for (Node child : node.getChildren()) {
+                if (idOfNode.containsKey(child)) count++;
+            }
+            childOffsets[id + 1] = childOffsets[id] + count;
+        }
+
+        // edges to nodes outside the list are dropped, as they cannot be addressed by id
+        childTargets = new int[childOffsets[n]];
+        int pos = 0;
+        for (Node node : nodes) {
+            for (Node child : node.getChildren()) {
+                Integer childId = idOfNode.get(child);
+                if (childId != null) childTargets[pos++] = childId;
+            }
+        }
+
+        parentOffsets = new int[n + 1];
+        parentTargets = new int[childTargets.length];
+        invert(childOffsets, childTargets, parentOffsets, parentTargets);
+        idOfVal = indexValues(vals);
+    }
+
+    // Builds a graph from values and child rows that are already in compressed form
+    CompactDag(int[] vals, int[] childOffsets, int[] childTargets) {
+        int n = vals.length;
+
+        this.vals = vals;
+        this.childOffsets = childOffsets;
+        this.childTargets = childTargets;
+        this.parentOffsets = new int[n + 1];
+        this.parentTargets = new int[childTargets.length];
+        invert(childOffsets, childTargets, parentOffsets, parentTargets);
+        this.idOfVal = indexValues(vals);
+    }
+
+    @Override
+    public int size() {
+        return vals.length;
+    }
+
+    @Override
+    public int edgeCount() {
+        return childTargets.length;
+    }
+
+    @Override
+    public int value(int id) {
+        return vals[id];
+    }
+
+    // returns the id of the first node holding val, or -1 if there is none
+    @Override
+    public int idOf(int val) {
+        return idOfVal.get(val);
+    }
+
+    @Override
+    public int childStart(int id) {
+        return childOffsets[id];
+    }
+
+    @Override
+    public int childEnd(int id) {
+        return childOffsets[id + 1];
+    }
+
+    @Override
+    public int childAt(int id, int index) {
+        return childTargets[index];
+    }
+
+    @Override
+    public int parentStart(int id) {
+        return parentOffsets[id];
+    }
+
+    @Override
+    public int parentEnd(int id) {
+        return parentOffsets[id + 1];
+    }
+
+    @Override
+    public int parentAt(int id, int index) {
+        return parentTargets[index];
+    }
+
+    public int[] children(int id) {
+        return slice(childOffsets, childTargets, id);
+    }
+
+    public int[] parents(int id) {
+        return slice(parentOffsets, parentTargets, id);
+    }
+
+    // Ids in an order where every node comes before its children (Kahn's algorithm). Throws if
+    // the edges contain a cycle.
+    public int[] topologicalOrder() {
+        int[] order = topologicalOrderOrNull();
+        if (order == null) {
+            throw new IllegalStateException("Graph contains a cycle; not every node can be ordered");
+        }
+        return order;
+    }
+
+    // topologicalOrder(), or null if the edges contain a cycle
+    int[] topologicalOrderOrNull() {
+        int n = vals.length;
+        int[] inDegree = new int[n];
+        for (int v = 0; v < n; v++) {
+            inDegree[v] = parentOffsets[v + 1] - parentOffsets[v];
+        }
+
+        int[] order = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int v = 0; v < n; v++) {
+            if (inDegree[v] == 0) order[tail++] = v;
+        }
+
+        while (head < tail) {
+            int v = order[head++];
+            for (int j = childOffsets[v]; j < childOffsets[v + 1]; j++) {
+                if (--inDegree[childTargets[j]] == 0) {
+                    order[tail++] = childTargets[j];
+                }
+            }
+        }
+
+        return tail == n ? order : null;
+    }
+
+    // Values of the nodes reachable from startId in BFS order. Unlike DirectedAcyclicGraph.bfs,
+    // a node reachable along several paths is listed once.
+    public int[] bfs(int startId) {
+        int n = vals.length;
+        int[] queue = new int[n];
+        boolean[] seen = new boolean[n];
+        int head = 0;
+        int tail = 0;
+
+        queue[tail++] = startId;
+        seen[startId] = true;
+
+        while (head < tail) {
+            int v = queue[head++];
+            for (int j = childOffsets[v]; j < childOffsets[v + 1]; j++) {
+                int child = childTargets[j];
+                if (!seen[child]) {
+                    seen[child] = true;
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        int[] order = new int[tail];
+        for (int i = 0; i < tail; i++) {
+            order[i] = vals[queue[i]];
+        }
+        return order;
+    }
+
+    // Ids along the shortest path from startId down to endId (both included), or null if endId is
+    // not reachable. Picks the same path as DirectedAcyclicGraph.shortestPath.
+    public int[] shortestPath(int startId, int endId) {
+        return DagDistanceEngine.forThread(this).shortestPath(startId, endId);
+    }
+
+    // Ids of the LCAs of two node ids, with the same semantics as DirectedAcyclicGraph.getLCAs
+    public int[] getLCAs(int id1, int id2) {
+        return new DagLcaEngine(this).lowestCommonAncestorIds(id1, id2);
+    }
+
+    // Ids of the LCAs of a whole set of node ids (see DagLcaEngine.lowestCommonAncestorIds)
+    public int[] getLCAs(int... ids) {
+        return DagLcaEngine.lowestCommonAncestorIds(this, ids);
+    }
+
+    // Node objects for this graph. The child and parent lists are handed to the nodes and filled
+    // afterwards, since addChild/addParent would search each list for duplicates.
+    public DirectedAcyclicGraph toGraph() {
+        int n = vals.length;
+        ArrayList<Node> nodes = new ArrayList<>(n);
+        ArrayList<ArrayList<Node>> children = new ArrayList<>(n);
+        ArrayList<ArrayList<Node>> parents = new ArrayList<>(n);
+        for (int id = 0; id < n; id++) {
+            children.add(new ArrayList<>(childOffsets[id + 1] - childOffsets[id]));
+            parents.add(new ArrayList<>(parentOffsets[id + 1] - parentOffsets[id]));
+            nodes.add(new Node(vals[id], children.get(id), parents.get(id)));
+        }
+        for (int id = 0; id < n; id++) {
+            for (int j = childOffsets[id]; j < childOffsets[id + 1]; j++) {
+                children.get(id).add(nodes.get(childTargets[j]));
+            }
+            for (int j = parentOffsets[id]; j < parentOffsets[id + 1]; j++) {
+                parents.get(id).add(nodes.get(parentTargets[j]));
+            }
+        }
+        return new DirectedAcyclicGraph(nodes);
+    }
+
+    private static int[] slice(int[] offsets, int[] targets, int id) {
+        int[] out = new int[offsets[id + 1] - offsets[id]];
+        System.arraycopy(targets, offsets[id], out, 0, out.length);
+        return out;
+    }
+
+    // fills the reverse rows of a compressed adjacency, keeping sources in ascending id order
+    private static void invert(int[] offsets, int[] targets, int[] reverseOffsets, int[] reverseTargets) {
+        int n = offsets.length - 1;
+
+        for (int target : targets) {
+            reverseOffsets[target + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            reverseOffsets[v + 1] += reverseOffsets[v];
+        }
+
+        int[] fill = new int[n];
+        System.arraycopy(reverseOffsets, 0, fill, 0, n);
+        for (int v = 0; v < n; v++) {
+            for (int j = offsets[v]; j < offsets[v + 1]; j++) {
+                reverseTargets[fill[targets[j]]++] = v;
+            }
+        }
+    }
+
+    private static IntIntHashMap indexValues(int[] vals) {
+        IntIntHashMap idOfVal = new IntIntHashMap(vals.length);
+        for (int id = 0; id < vals.length; id++) {
+            idOfVal.putIfAbsent(vals[id], id);
+        }
+        return idOfVal;
+    }
+}
@@ -0,0 +1,278 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+// Builds a CompactDag straight from an edge list, without Node objects. Building through
+// Node.addChild/addParent costs O(degree) per edge for the duplicate checks, which is quadratic
+// on high-degree nodes; here every step is linear in the number of edges.
+//
+// Edges are given as (parent value, child value) pairs and may arrive in any order, repeated or
+// interleaved. Nodes get ids in the order their values first appear, either in addNode or in an
+// edge. build() groups the edges by parent with a counting sort, which keeps each node's children
+// in arrival order, drops repeated edges with one stamp per node, and checks for cycles with a
+// single topological sort.
+//
+// Input is read in fixed-size chunks, and the edge buffer (two ints per edge) is compacted
+// whenever it fills: the same grouping and repeat removal as build() runs in place, and the buffer
+// only grows when more than half of it is still distinct edges. The builder therefore holds at
+// most about twice the distinct edges plus the value index, however long or repetitive the input.
+// It deliberately does not spill to disk: the CompactDag it builds holds every distinct edge in
+// memory anyway, so the bound is set by the output, not the input.
+//
+// A builder made with forKeys(dictionary) takes dictionary ids in place of values: node id i is
+// the dictionary's id i and holds i as its value, so a query translates its keys with idOf, runs
+// on the CompactDag, and turns result ids back into keys with key(id).
+public final class CompactDagBuilder {
+
+    private static final int CHUNK_BYTES = 1 << 16;
+    private static final long NO_VALUE = Long.MIN_VALUE;
+
+    private final IntIntHashMap idOfVal = new IntIntHashMap(16);
+    private int[] vals = new int[16];
+    private int nodeCount;
+
+    private int[] edgeParents = new int[16];
+    private int[] edgeChildren = new int[16];
+    private int edgeCount;     // edges in the buffer
+    private int edgesAdded;    // edges ever added, repeats included
+
+    private final KeyDictionary<?> keys;    // null unless values are dictionary ids
+
+    public CompactDagBuilder() {
+        this.keys = null;
+    }
+
+    private CompactDagBuilder(KeyDictionary<?> keys) {
+        this.keys = keys;
+    }
+
+    // A builder over the ids of keys. Every id of the dictionary is a node, including keys added
+    // after the builder was made; values outside 0 .. keys.size() - 1 are rejected with
+    // IllegalArgumentException.
+    public static CompactDagBuilder forKeys(KeyDictionary<?> keys) {
+        return new CompactDagBuilder(keys);
+    }
+
+    // Adds a node holding val unless one exists; returns its id
+    public int addNode(int val) {
+        if (keys != null) {
+            if (val < 0 || val >= keys.size()) {
+                throw new IllegalArgumentException("No key with id " + val);
+            }
+            return val;
+        }
+
+        int id = idOfVal.get(val);
+        if (id != -1) return id;
+
+        if (nodeCount == vals.length) {
+            vals = Arrays.copyOf(vals, vals.length * 2);
+        }
+        vals[nodeCount] = val;
+        idOfVal.put(val, nodeCount);
+        return nodeCount++;
+    }
+
+    public CompactDagBuilder addEdge(int parentVal, int childVal) {
+        int parent = addNode(parentVal);
+        int child = addNode(childVal);
+
+        if (edgeCount == edgeParents.length) {
+            groupEdges();
+            if (edgeCount > edgeParents.length / 2) {
+                edgeParents = Arrays.copyOf(edgeParents, edgeParents.length * 2);
+                edgeChildren = Arrays.copyOf(edgeChildren, edgeChildren.length * 2);
+            }
+        }
+        edgeParents[edgeCount] = parent;
+        edgeChildren[edgeCount] = child;
+        edgeCount++;
+        edgesAdded++;
+        return this;
+    }
+
+    public CompactDagBuilder readText(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return readText(in);
+        }
+    }
+
+    // Reads decimal "parent child" pairs separated by any whitespace or commas; '#' starts a
+    // comment running to the end of the line. The stream is not closed.
+    public CompactDagBuilder readText(InputStream in) throws IOException {
+        byte[] chunk = new byte[CHUNK_BYTES];
+        long parentVal = NO_VALUE;
+        long number = 0;
+        int digits = 0;
+        boolean negative = false;
+        boolean inComment = false;
+        int line = 1;
+
+        int read;
+        while ((read = in.read(chunk)) != -1) {
+            for (int i = 0; i < read; i++) {
+                int c = chunk[i];
+
+                if (inComment) {
+                    if (c == '\n') {
+                        inComment = false;
+                        line++;
+                    }
+                    continue;
+                }
+                if (c >= '0' && c <= '9') {
+                    number = number * 10 + (c - '0');
+                    if (++digits > 10 || (negative ? -number : number) != (int) (negative ? -number : number)) {
+                        throw new IOException("Value out of int range on line " + line);
+                    }
+                    continue;
+                }
+                if (c == '-' && digits == 0 && !negative) {
+                    negative = true;
+                    continue;
+                }
+
+                if (digits > 0) {
+                    int val = (int) (negative ? -number : number);
+                    if (parentVal == NO_VALUE) {
+                        parentVal = val;
+                    } else {
+                        addEdge((int) parentVal, val);
+                        parentVal = NO_VALUE;
+                    }
+                    number = 0;
+                    digits = 0;
+                    negative = false;
+                } else if (negative) {
+                    throw new IOException("Stray '-' on line " + line);
+                }
+
+                if (c == '#') {
+                    inComment = true;
+                } else if (c == '\n') {
+                    line++;
+                } else if (c != ' ' && c != '\t' && c != '\r' && c != ',') {
+                    throw new IOException("Unexpected character '" + (char) c + "' on line " + line);
+                }
+            }
+        }
+
+        // the input may end right after the last digit
+        if (digits > 0 && parentVal != NO_VALUE) {
+            addEdge((int) parentVal, (int) (negative ? -number : number));
+        } else if (digits > 0 || parentVal != NO_VALUE || negative) {
+            throw new IOException("Edge list ends with an unpaired value");
+        }
+        return this;
+    }
+
+    public CompactDagBuilder readBinary(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return readBinary(in);
+        }
+    }
+
+    // Reads (parent, child) pairs of big-endian ints, as written by DataOutputStream.writeInt,
+    // until the end of the stream. The stream is not closed.
+    public CompactDagBuilder readBinary(InputStream in) throws IOException {
+        byte[] chunk = new byte[CHUNK_BYTES];
+        int filled = 0;
+
+        int read;
+        while ((read = in.read(chunk, filled, chunk.length - filled)) != -1) {
+            filled += read;
+
+            int pairs = filled / 8;
+            for (int p = 0, i = 0; p < pairs; p++, i += 8) {
+                addEdge(intAt(chunk, i), intAt(chunk, i + 4));
+            }
+
+            // carry a pair cut in half by the chunk boundary over to the next read
+            int used = pairs * 8;
+            System.arraycopy(chunk, used, chunk, 0, filled - used);
+            filled -= used;
+        }
+
+        if (filled != 0) {
+            throw new EOFException("Edge list ends " + filled + " bytes into a pair");
+        }
+        return this;
+    }
+
+    public int nodeCount() {
+        return keys != null ? keys.size() : nodeCount;
+    }
+
+    // number of edges added so far, repeats included
+    public int edgeCount() {
+        return edgesAdded;
+    }
+
+    // Freezes the nodes and edges added so far. Throws IllegalStateException if the edges contain
+    // a cycle. The builder can keep growing afterwards.
+    public CompactDag build() {
+        int n = nodeCount();
+        int[] childOffsets = groupEdges();
+
+        int[] nodeVals;
+        if (keys != null) {
+            nodeVals = new int[n];
+            for (int id = 0; id < n; id++) nodeVals[id] = id;
+        } else {
+            nodeVals = Arrays.copyOf(vals, n);
+        }
+        CompactDag graph = new CompactDag(nodeVals, childOffsets, Arrays.copyOf(edgeChildren, edgeCount));
+        graph.topologicalOrder();
+        return graph;
+    }
+
+    // Groups the buffered edges by parent with a counting sort, which keeps each node's children
+    // in arrival order, and drops repeats, keeping the first occurrence. The buffer is rewritten
+    // in place in that order; returns the offset of each node's first edge in it, with the edge
+    // count at the end.
+    private int[] groupEdges() {
+        int n = nodeCount();
+        int m = edgeCount;
+
+        int[] childOffsets = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            childOffsets[edgeParents[e] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            childOffsets[v + 1] += childOffsets[v];
+        }
+
+        int[] fill = Arrays.copyOf(childOffsets, n);
+        int[] childTargets = new int[m];
+        for (int e = 0; e < m; e++) {
+            childTargets[fill[edgeParents[e]]++] = edgeChildren[e];
+        }
+
+        // drop repeats; lastParent[c] == v + 1 once v -> c is kept
+        int[] lastParent = fill;
+        Arrays.fill(lastParent, 0);
+        int kept = 0;
+        for (int v = 0; v < n; v++) {
+            int start = childOffsets[v];
+            childOffsets[v] = kept;
+            for (int j = start; j < childOffsets[v + 1]; j++) {
+                int child = childTargets[j];
+                if (lastParent[child] != v + 1) {
+                    lastParent[child] = v + 1;
+                    edgeParents[kept] = v;
+                    edgeChildren[kept++] = child;
+                }
+            }
+        }
+        childOffsets[n] = kept;
+        edgeCount = kept;
+        return childOffsets;
+    }
+
+    private static int intAt(byte[] bytes, int i) {
+        return (bytes[i] << 24) | ((bytes[i + 1] & 0xFF) << 16) | ((bytes[i + 2] & 0xFF) << 8) | (bytes[i + 3] & 0xFF);
+    }
+}
@@ -0,0 +1,72 @@
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+// Prints the LCA traversals step by step, in the format they printed before tracing became
+// optional: the two root paths of a tree query, the queue at each step of a DAG search and the
+// nodes picked out by the colouring passes.
+public class ConsoleTraceListener implements LcaTraceListener {
+
+    private final PrintStream out;
+
+    public ConsoleTraceListener() {
+        this(System.out);
+    }
+
+    public ConsoleTraceListener(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void treePaths(int val1, List<BinaryTreeNode> path1, int val2, List<BinaryTreeNode> path2) {
+        out.println("\n\nPATH1:");
+        for (BinaryTreeNode node : path1) {
+            out.print(node.getVal() + " ");
+        }
+        out.println("\nPATH2:");
+        for (BinaryTreeNode node : path2) {
+            out.print(node.getVal() + " ");
+        }
+        out.println("\n");
+    }
+
+    @Override
+    public void searchStarted(Node start, Node target) {
+        out.println("\nPerforming BFS w starting node " + start + " seeking target " + target + "\n");
+    }
+
+    @Override
+    public void searchQueue(Collection<Node> queue) {
+        out.println("Queue: " + Arrays.toString(queue.toArray()));
+    }
+
+    @Override
+    public void searchVisited(Node node) {
+        out.println("Cur Node: " + node);
+    }
+
+    @Override
+    public void searchEnqueued(Node node) {
+        out.println("Adding " + node + " to queue");
+    }
+
+    @Override
+    public void searchStepDone() {
+        out.println();
+    }
+
+    @Override
+    public void colouredNodes(Node.Color colour, List<Node> nodes) {
+        if (colour == Node.Color.BLUE) {
+            out.println("Blue nodes: ");
+        } else if (colour == Node.Color.RED) {
+            out.println("\nRed nodes: ");
+        } else {
+            out.println("\nWhite nodes: ");
+        }
+        for (Node n : nodes) {
+            out.println("\t" + n);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+// Batched LCA engine for DirectedAcyclicGraph with the same semantics as getLCAs: the LCAs of
+// two targets are their common (strict) ancestors whose longer shortest path down to a target
+// is as short as possible.
+//
+// Each distinct target gets one reverse BFS, recorded as an ancestor bitset plus a distance row,
+// and the row is shared by every query in the batch that mentions that target. Queries are
+// processed grouped by their first target so its row is reused back to back, and common
+// ancestors are found a 64-bit word at a time by ANDing the two bitsets.
+public class DagBatchLca {
+
+    private static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private final ArrayList<Node> nodes;
+    private final int[] parentOffsets;
+    private final int[] parentTargets;
+    private final IntIntHashMap idOfVal;
+    private final int maxCachedRows;
+
+    public DagBatchLca(DirectedAcyclicGraph graph) {
+        this(graph, DEFAULT_CACHE_BYTES);
+    }
+
+    // cacheBytes bounds the memory held by cached ancestor rows during a batch
+    public DagBatchLca(DirectedAcyclicGraph graph, long cacheBytes) {
+        this(new DagLcaEngine(graph), cacheBytes);
+    }
+
+    public DagBatchLca(DagLcaEngine engine) {
+        this(engine, DEFAULT_CACHE_BYTES);
+    }
+
+    public DagBatchLca(DagLcaEngine engine, long cacheBytes) {
+        if (engine.nodes == null) {
+            throw new IllegalArgumentException("Batch queries need an engine built from a DirectedAcyclicGraph");
+        }
+        this.nodes = engine.nodes;
+        this.parentOffsets = engine.graph.parentOffsets;
+        this.parentTargets = engine.graph.parentTargets;
+        this.idOfVal = engine.graph.idOfVal;
+        int n = nodes.size();
+
+        long rowBytes = 4L * n + 8L * words(n) + 16;
+        maxCachedRows = (int) Math.max(2, Math.min(Integer.MAX_VALUE, cacheBytes / rowBytes));
+    }
+
+    // Returns, for each i, the values of the LCAs of the nodes holding vals1[i] and vals2[i], in
+    // the order the nodes appear in the graph
+    public int[][] getLCAs(int[] vals1, int[] vals2) {
+        if (vals1.length != vals2.length) {
+            throw new IllegalArgumentException("Query arrays differ in length: "
+                    + vals1.length + " and " + vals2.length);
+        }
+
+        int n = nodes.size();
+        int q = vals1.length;
+        int[] ids1 = resolve(vals1);
+        int[] ids2 = resolve(vals2);
+
+        // counting sort of the queries by first target
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < q; i++) offsets[ids1[i] + 1]++;
+        for (int id = 0; id < n; id++) offsets[id + 1] += offsets[id];
+        int[] order = new int[q];
+        for (int i = 0; i < q; i++) order[offsets[ids1[i]]++] = i;
+
+        int[][] answers = new int[q][];
+        AncestorRow[] cache = new AncestorRow[n];
+        int cachedRows = 0;
+        int[] queue = new int[n];
+        int[] found = new int[n];
+
+        for (int i : order) {
+            AncestorRow row1 = cache[ids1[i]];
+            if (row1 == null) {
+                cachedRows = makeRoom(cache, cachedRows, -1);
+                row1 = cache[ids1[i]] = ancestorsOf(ids1[i], queue);
+                cachedRows++;
+            }
+            AncestorRow row2 = cache[ids2[i]];
+            if (row2 == null) {
+                cachedRows = makeRoom(cache, cachedRows, ids1[i]);
+                row2 = cache[ids2[i]] = ancestorsOf(ids2[i], queue);
+                cachedRows++;
+            }
+
+            answers[i] = lowestOf(row1, row2, found);
+        }
+
+        return answers;
+    }
+
+    private int[] lowestOf(AncestorRow row1, AncestorRow row2, int[] found) {
+        int count = 0;
+        int best = Integer.MAX_VALUE;
+
+        for (int w = 0; w < row1.bits.length; w++) {
+            long common = row1.bits[w] & row2.bits[w];
+            while (common != 0) {
+                int id = (w << 6) + Long.numberOfTrailingZeros(common);
+                common &= common - 1;
+
+                int distance = Math.max(row1.dist[id], row2.dist[id]);
+                if (distance < best) {
+                    best = distance;
+                    count = 0;
+                }
+                if (distance == best) {
+                    found[count++] = nodes.get(id).getVal();
+                }
+            }
+        }
+
+        int[] lcas = new int[count];
+        System.arraycopy(found, 0, lcas, 0, count);
+        return lcas;
+    }
+
+    // reverse BFS from target over parent edges; dist is the shortest path length down to target
+    private AncestorRow ancestorsOf(int target, int[] queue) {
+        int n = nodes.size();
+        AncestorRow row = new AncestorRow(new long[words(n)], new int[n]);
+
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = target;
+
+        while (head < tail) {
+            int v = queue[head++];
+            for (int j = parentOffsets[v]; j < parentOffsets[v + 1]; j++) {
+                int p = parentTargets[j];
+                if ((row.bits[p >>> 6] & (1L << p)) == 0) {
+                    row.dist[p] = row.dist[v] + 1;
+                    row.bits[p >>> 6] |= 1L << p;
+                    queue[tail++] = p;
+                }
+            }
+        }
+        return row;
+    }
+
+    private int[] resolve(int[] vals) {
+        int[] ids = new int[vals.length];
+        for (int i = 0; i < vals.length; i++) {
+            ids[i] = idOfVal.get(vals[i]);
+            if (ids[i] == -1) {
+                throw new NoSuchElementException("No node with value " + vals[i]);
+            }
+        }
+        return ids;
+    }
+
+    // drops every cached row except keep's once the cache is full; returns the new row count
+    private int makeRoom(AncestorRow[] cache, int cachedRows, int keep) {
+        if (cachedRows < maxCachedRows) return cachedRows;
+
+        AncestorRow kept = keep == -1 ? null : cache[keep];
+        Arrays.fill(cache, null);
+        if (kept == null) return 0;
+
+        cache[keep] = kept;
+        return 1;
+    }
+
+    private static int words(int n) {
+        return (n + 63) >>> 6;
+    }
+
+    private static final class AncestorRow {
+        final long[] bits;
+        final int[] dist;
+
+        AncestorRow(long[] bits, int[] dist) {
+            this.bits = bits;
+            this.dist = dist;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+// One-to-many and all-pairs LCA for a CompactDag, with the semantics of DagLcaEngine. Looping the
+// engine over every pair costs a reverse BFS per query; here the ancestor distances are built
+// once by dynamic programming in topological order, using
+//
+//   d(c, x) = 0 if c == x, else 1 + min over parents p of x of d(c, p)
+//
+// so each node's distances come from its parents' rows.
+//
+// oneToMany(source) keeps one column per ancestor of source: O(E * k) time for k ancestors, and
+// a node's row is dropped once all its children have used it. The LCAs of a target are final as
+// soon as its row is, so the sink form hands them over right there, in topological order, and
+// only the rows still needed by unvisited children are held.
+//
+// allPairs() keeps, per node, an ancestor bitset and a full distance row, so it needs about
+// 4.1 * n^2 bytes and is meant for graphs of a few thousand nodes. The rows are built one
+// topological level at a time, in parallel within a level. The LCAs of (a, b) are then found
+// by scanning anc(a) AND anc(b) word by word, with the rows of a split between pool workers.
+public class DagBulkLca {
+
+    private static final int INF = Integer.MAX_VALUE / 2;
+    private static final int GRAIN = 16;
+
+    private final CompactDag graph;
+    private final ForkJoinPool pool;
+    private final int[] order;
+
+    public DagBulkLca(CompactDag graph) {
+        this(graph, ForkJoinPool.commonPool());
+    }
+
+    // Throws IllegalStateException if the graph contains a cycle
+    public DagBulkLca(CompactDag graph, ForkJoinPool pool) {
+        this.graph = graph;
+        this.pool = pool;
+        this.order = graph.topologicalOrder();
+    }
+
+    /* One to many ------------- */
+
+    // lcas[t] holds the LCA ids of sourceId and t, for every id t
+    public int[][] oneToMany(int sourceId) {
+        int[][] lcas = new int[graph.size()][];
+        oneToMany(sourceId, (id1, id2, ids, count) -> lcas[id2] = Arrays.copyOf(ids, count));
+        return lcas;
+    }
+
+    // Delivers the LCAs of sourceId and every id to sink, one target at a time in topological
+    // order, from the calling thread
+    public void oneToMany(int sourceId, LcaSink sink) {
+        int n = graph.size();
+        int[] dist = new int[n];
+        int[] stamp = new int[n];
+        int[] queue = new int[n];
+        int k = DagLcaEngine.distancesToAncestors(graph, sourceId, dist, stamp, 1, queue);
+
+        // column i stands for ancestor queue[i + 1] of the source, at distance sourceDist[i]
+        int[] column = new int[n];
+        Arrays.fill(column, -1);
+        int[] ancestor = new int[k];
+        int[] sourceDist = new int[k];
+        for (int i = 0; i < k; i++) {
+            ancestor[i] = queue[i + 1];
+            sourceDist[i] = dist[ancestor[i]];
+            column[ancestor[i]] = i;
+        }
+
+        int[] pendingChildren = new int[n];
+        for (int v = 0; v < n; v++) {
+            pendingChildren[v] = graph.childOffsets[v + 1] - graph.childOffsets[v];
+        }
+
+        // rows[x][i] = d(ancestor[i], x); null while every entry would be INF
+        int[][] rows = new int[n][];
+        int[] best = new int[k];
+
+        for (int x : order) {
+            int[] row = null;
+            if (column[x] != -1) {
+                row = newRow(k);
+                row[column[x]] = 0;
+            }
+
+            for (int j = graph.parentOffsets[x]; j < graph.parentOffsets[x + 1]; j++) {
+                int p = graph.parentTargets[j];
+                int[] parentRow = rows[p];
+                if (parentRow != null) {
+                    if (row == null) row = newRow(k);
+                    for (int i = 0; i < k; i++) {
+                        if (parentRow[i] + 1 < row[i]) row[i] = parentRow[i] + 1;
+                    }
+                }
+                if (--pendingChildren[p] == 0) rows[p] = null;
+            }
+
+            // the strict ancestors of x are the columns with a distance of at least 1
+            int bestDistance = INF;
+            int count = 0;
+            if (row != null) {
+                for (int i = 0; i < k; i++) {
+                    if (row[i] == 0 || row[i] >= INF) continue;
+
+                    int distance = Math.max(sourceDist[i], row[i]);
+                    if (distance < bestDistance) {
+                        bestDistance = distance;
+                        count = 0;
+                    }
+                    if (distance == bestDistance) best[count++] = ancestor[i];
+                }
+            }
+            Arrays.sort(best, 0, count);
+            sink.accept(sourceId, x, best, count);
+
+            if (pendingChildren[x] > 0) rows[x] = row;
+        }
+    }
+
+    /* All pairs --------------- */
+
+    public LcaMatrix allPairs() {
+        LcaMatrix matrix = new LcaMatrix(graph.size());
+        allPairs(matrix);
+        return matrix;
+    }
+
+    public void allPairs(LcaSink sink) {
+        int n = graph.size();
+        int words = (n + 63) >>> 6;
+        long[][] ancestors = new long[n][];
+        int[][] dist = new int[n][];
+
+        // nodes of one level only have parents in earlier levels
+        int[] level = new int[n];
+        int levels = 0;
+        for (int x : order) {
+            for (int j = graph.parentOffsets[x]; j < graph.parentOffsets[x + 1]; j++) {
+                level[x] = Math.max(level[x], level[graph.parentTargets[j]] + 1);
+            }
+            levels = Math.max(levels, level[x] + 1);
+        }
+        int[] levelStart = new int[levels + 1];
+        for (int x = 0; x < n; x++) levelStart[level[x] + 1]++;
+        for (int l = 0; l < levels; l++) levelStart[l + 1] += levelStart[l];
+        int[] byLevel = new int[n];
+        int[] fill = Arrays.copyOf(levelStart, levels);
+        for (int x : order) byLevel[fill[level[x]]++] = x;
+
+        for (int l = 0; l < levels; l++) {
+            forRange(levelStart[l], levelStart[l + 1], (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    int x = byLevel[i];
+                    long[] bits = new long[words];
+                    int[] row = newRow(n);
+                    row[x] = 0;
+
+                    for (int j = graph.parentOffsets[x]; j < graph.parentOffsets[x + 1]; j++) {
+                        int p = graph.parentTargets[j];
+                        long[] parentBits = ancestors[p];
+                        int[] parentRow = dist[p];
+                        for (int w = 0; w < words; w++) {
+                            long word = parentBits[w];
+                            bits[w] |= word;
+                            // only ancestors of p can get closer through p
+                            while (word != 0) {
+                                int c = (w << 6) + Long.numberOfTrailingZeros(word);
+                                word &= word - 1;
+                                if (parentRow[c] + 1 < row[c]) row[c] = parentRow[c] + 1;
+                            }
+                        }
+                        bits[p >>> 6] |= 1L << p;
+                        row[p] = 1;
+                    }
+                    ancestors[x] = bits;
+                    dist[x] = row;
+                }
+            });
+        }
+
+        forRange(0, n, (from, to) -> {
+            int[] best = new int[n];
+            for (int a = from; a < to; a++) {
+                long[] bitsA = ancestors[a];
+                int[] rowA = dist[a];
+
+                for (int b = 0; b < n; b++) {
+                    long[] bitsB = ancestors[b];
+                    int[] rowB = dist[b];
+                    int bestDistance = INF;
+                    int count = 0;
+
+                    for (int w = 0; w < words; w++) {
+                        long common = bitsA[w] & bitsB[w];
+                        while (common != 0) {
+                            int c = (w << 6) + Long.numberOfTrailingZeros(common);
+                            common &= common - 1;
+
+                            int distance = Math.max(rowA[c], rowB[c]);
+                            if (distance < bestDistance) {
+                                bestDistance = distance;
+                                count = 0;
+                            }
+                            if (distance == bestDistance) best[count++] = c;
+                        }
+                    }
+                    sink.accept(a, b, best, count);
+                }
+            }
+        });
+    }
+
+    /* ------------------------- */
+
+    private static int[] newRow(int length) {
+        int[] row = new int[length];
+        Arrays.fill(row, INF);
+        return row;
+    }
+
+    // runs body over [from, to) on the pool, in chunks of about GRAIN items
+    private void forRange(int from, int to, ParallelIndexBuilder.RangeBody body) {
+        ParallelIndexBuilder.forRange(pool, from, to, GRAIN, body);
+    }
+}
@@ -0,0 +1,159 @@
+import java.util.Arrays;
+
+// Breadth-first distances over a DagView without per-search allocation. The queue is an int[]
+// ring buffer and dist/parent are int[] arrays stamped with an epoch, so a new search is one
+// increment rather than a clear, and a path is only rebuilt from parent[] when one is asked for.
+//
+// Searches run down child edges (distance, shortestPath) or up parent edges from one or more
+// targets at once (distancesToAncestors), in which case every ancestor gets its distance to the
+// nearest target in the same pass.
+//
+// An engine keeps the results of its last search and is meant for one thread; forThread hands
+// out one per thread and graph. Arrays grow to the largest graph searched and are then reused.
+public class DagDistanceEngine {
+
+    private static final ThreadLocal<DagDistanceEngine> POOL = ThreadLocal.withInitial(() -> new DagDistanceEngine(null));
+
+    private DagView graph;
+
+    private int[] queue = new int[0];   // ring buffer, capacity a power of two
+    private int[] dist = new int[0];
+    private int[] parent = new int[0];  // node each one was first reached from, -1 for a source
+    private int[] stamp = new int[0];
+    private int epoch;
+
+    private int reached;                // nodes the last search reached, in BFS order in queue
+
+    public DagDistanceEngine(DagView graph) {
+        this.graph = graph;
+    }
+
+    // This thread's engine, switched to graph; its results are overwritten by the next call
+    static DagDistanceEngine forThread(DagView graph) {
+        DagDistanceEngine engine = POOL.get();
+        engine.graph = graph;
+        return engine;
+    }
+
+    /* Searches ---------------- */
+
+    // Number of edges on the shortest path from startId down to endId, or -1 if there is none
+    public int distance(int startId, int endId) {
+        start();
+        visit(startId, -1, 0);
+
+        int mask = queue.length - 1;
+        int head = 0;
+        while (head < reached) {
+            int v = queue[head++ & mask];
+            if (v == endId) return dist[v];
+
+            int d = dist[v] + 1;
+            int end = graph.childEnd(v);
+            for (int j = graph.childStart(v); j < end; j++) {
+                int child = graph.childAt(v, j);
+                if (stamp[child] != epoch) visit(child, v, d);
+            }
+        }
+        return -1;
+    }
+
+    // Ids along the shortest path from startId down to endId (both included), or null if endId is
+    // not reachable. Among equally short paths it takes the one whose nodes are reached first
+    // when children are expanded in order, as CompactDag.shortestPath does.
+    public int[] shortestPath(int startId, int endId) {
+        return distance(startId, endId) == -1 ? null : pathTo(endId);
+    }
+
+    // One reverse BFS from targetId: every ancestor gets the number of edges on its shortest path
+    // down to the target. Returns the number of strict ancestors.
+    public int distancesToAncestors(int targetId) {
+        start();
+        visit(targetId, -1, 0);
+        expandParents();
+        return reached - 1;
+    }
+
+    // Multi-source form: each ancestor of any target gets its distance to the nearest target,
+    // all in one reverse BFS. Returns the number of nodes reached, targets included.
+    public int distancesToAncestors(int[] targetIds) {
+        start();
+        for (int target : targetIds) {
+            if (stamp[target] != epoch) visit(target, -1, 0);
+        }
+        expandParents();
+        return reached;
+    }
+
+    /* Results of the last search */
+
+    // distance of id found by the last search, or -1 if it did not reach id
+    public int distanceOf(int id) {
+        return stamp[id] == epoch ? dist[id] : -1;
+    }
+
+    public int reachedCount() {
+        return reached;
+    }
+
+    // the i-th node the last search reached, in BFS order; sources come first
+    public int reachedAt(int i) {
+        return queue[i & (queue.length - 1)];
+    }
+
+    // Ids of the path the last search found from its source to id, in search direction: down from
+    // the start for distance, up from the target for distancesToAncestors. Null if id was not
+    // reached.
+    public int[] pathTo(int id) {
+        if (stamp[id] != epoch) return null;
+
+        int[] path = new int[dist[id] + 1];
+        for (int u = id, i = path.length - 1; i >= 0; u = parent[u], i--) {
+            path[i] = u;
+        }
+        return path;
+    }
+
+    /* ------------------------- */
+
+    private void expandParents() {
+        int mask = queue.length - 1;
+        int head = 0;
+        while (head < reached) {
+            int v = queue[head++ & mask];
+            int d = dist[v] + 1;
+            int end = graph.parentEnd(v);
+            for (int j = graph.parentStart(v); j < end; j++) {
+                int p = graph.parentAt(v, j);
+                if (stamp[p] != epoch) visit(p, v, d);
+            }
+        }
+    }
+
+    // every node is queued at most once per search, so the ring never overflows
+    private void visit(int id, int from, int d) {
+        stamp[id] = epoch;
+        dist[id] = d;
+        parent[id] = from;
+        queue[reached++ & (queue.length - 1)] = id;
+    }
+
+    private void start() {
+        int n = graph.size();
+        if (stamp.length < n) {
+            int capacity = Math.max(n, stamp.length + (stamp.length >> 1));
+            queue = new int[Integer.highestOneBit(Math.max(1, capacity - 1)) << 1];
+            dist = new int[capacity];
+            parent = new int[capacity];
+            stamp = new int[capacity];
+            epoch = 0;
+        }
+
+        epoch++;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            epoch = 1;
+        }
+        reached = 0;
+    }
+}
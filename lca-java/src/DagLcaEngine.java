@@ -0,0 +1,250 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// LCA engine for DirectedAcyclicGraph that replaces the colouring passes of the original getLCAs.
+//
+// The LCAs of two targets are their common (strict) ancestors whose longer shortest path down to
+// a target is as short as possible. A BFS over parent edges from a target reaches exactly its
+// ancestors, and reaches each one first along a shortest path, so one reverse BFS per target
+// both marks the ancestors and measures their distances. A final pass over the ancestors of the
+// first target keeps the common ones with the smallest larger distance: O(V + E) per query at
+// worst, and proportional to the ancestors actually visited in practice.
+//
+// The engine runs on a CompactDag, and the query itself on any DagView. Built from a
+// DirectedAcyclicGraph it freezes a snapshot of the nodes and edges, so build a new one after the
+// graph changes. An engine never writes to the graph, so one instance can serve queries from many
+// threads at once.
+public class DagLcaEngine {
+
+    final CompactDag graph;
+    final ArrayList<Node> nodes;                   // null when built straight from a CompactDag
+    final IdentityHashMap<Node, Integer> idOfNode;
+
+    public DagLcaEngine(DirectedAcyclicGraph graph) {
+        this.nodes = new ArrayList<>(graph.getNodes());
+        this.graph = new CompactDag(nodes);
+
+        idOfNode = new IdentityHashMap<>(nodes.size());
+        for (int id = 0; id < nodes.size(); id++) {
+            idOfNode.put(nodes.get(id), id);
+        }
+    }
+
+    // Runs on an already frozen graph; answers id-based queries only
+    public DagLcaEngine(CompactDag graph) {
+        this.graph = graph;
+        this.nodes = null;
+        this.idOfNode = null;
+    }
+
+    public int size() {
+        return graph.size();
+    }
+
+    // returns the id of the first node holding val, or -1 if there is none
+    public int idOf(int val) {
+        return graph.idOf(val);
+    }
+
+    // id of node in the snapshot, or -1 if it is not part of it
+    int idOf(Node node) {
+        Integer id = idOfNode == null ? null : idOfNode.get(node);
+        return id == null ? -1 : id;
+    }
+
+    // Same nodes as the original DirectedAcyclicGraph.getLCAs, in the order they appear in the
+    // graph's node list. The colouring version returned them in HashMap order over identity
+    // hashes, which could change from run to run.
+    public ArrayList<Node> getLCAs(Node target1, Node target2) {
+        if (nodes == null) {
+            throw new IllegalStateException("Engine was built without Node objects; use lowestCommonAncestorIds");
+        }
+        ArrayList<Node> lCAs = new ArrayList<>();
+
+        Integer id1 = idOfNode.get(target1);
+        Integer id2 = idOfNode.get(target2);
+        if (id1 == null || id2 == null) return lCAs;
+
+        for (int id : lowestCommonAncestorIds(id1, id2)) {
+            lCAs.add(nodes.get(id));
+        }
+        return lCAs;
+    }
+
+    // Same result as DirectedAcyclicGraph.getLCAs(Node...), in graph order; empty if a target is
+    // not in the snapshot
+    public ArrayList<Node> getLCAs(Node... targets) {
+        if (nodes == null) {
+            throw new IllegalStateException("Engine was built without Node objects; use lowestCommonAncestorIds");
+        }
+        ArrayList<Node> lCAs = new ArrayList<>();
+
+        int[] ids = new int[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            ids[i] = idOf(targets[i]);
+            if (ids[i] == -1) return lCAs;
+        }
+
+        for (int id : lowestCommonAncestorIds(graph, ids)) {
+            lCAs.add(nodes.get(id));
+        }
+        return lCAs;
+    }
+
+    // Thread-safe: all marks live in the calling thread's DagScratch, and the graph is only read
+    public int[] lowestCommonAncestorIds(int id1, int id2) {
+        return lowestCommonAncestorIds(graph, id1, id2);
+    }
+
+    // The same query on any DagView, such as a MappedDag opened from disk
+    static int[] lowestCommonAncestorIds(DagView graph, int id1, int id2) {
+        DagScratch scratch = DagScratch.forQuery(graph.size());
+        int[] queue = scratch.queue;
+
+        // the first BFS leaves target1's ancestors in queue[1 .. count1]
+        int count1 = distancesToAncestors(graph, id1, scratch.dist1, scratch.stamp1, scratch.epoch, queue, scratch);
+        int[] ancestors1 = new int[count1];
+        System.arraycopy(queue, 1, ancestors1, 0, count1);
+
+        distancesToAncestors(graph, id2, scratch.dist2, scratch.stamp2, scratch.epoch, queue, scratch);
+
+        int best = Integer.MAX_VALUE;
+        int count = 0;
+        for (int id : ancestors1) {
+            if (scratch.stamp2[id] == scratch.epoch && id != id2) {
+                int distance = Math.max(scratch.dist1[id], scratch.dist2[id]);
+                if (distance < best) {
+                    best = distance;
+                    count = 0;
+                }
+                if (distance == best) {
+                    queue[count++] = id;
+                }
+            }
+        }
+
+        int[] lcas = new int[count];
+        System.arraycopy(queue, 0, lcas, 0, count);
+        Arrays.sort(lcas);
+        return lcas;
+    }
+
+    // Ids of the LCAs of a whole set of node ids: the common strict ancestors of all of them whose
+    // longest shortest path down to a target is as short as possible. For two ids this is
+    // lowestCommonAncestorIds(id1, id2).
+    public int[] lowestCommonAncestorIds(int... ids) {
+        return lowestCommonAncestorIds(graph, ids);
+    }
+
+    // The k-ary query on any DagView. One reverse BFS per target marks its ancestors in a bitset,
+    // which is ANDed into the common set a word at a time, while the distances keep the largest
+    // seen so far; once the common set is empty the remaining targets are skipped.
+    static int[] lowestCommonAncestorIds(DagView graph, int[] ids) {
+        if (ids.length == 0) {
+            throw new IllegalArgumentException("LCA of an empty set of nodes");
+        }
+        int n = graph.size();
+        int words = (n + 63) >>> 6;
+        DagScratch scratch = DagScratch.forQuery(n);
+        int[] queue = scratch.queue;
+        int[] maxDist = scratch.dist1;
+        int[] dist = scratch.dist2;
+        long[] common = scratch.bits(words, 0);
+        long[] reached = scratch.bits(words, 1);
+
+        for (int t = 0; t < ids.length; t++) {
+            Arrays.fill(reached, 0, words, 0);
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = ids[t];
+            reached[ids[t] >>> 6] |= 1L << ids[t];
+            dist[ids[t]] = 0;
+
+            while (head < tail) {
+                int v = queue[head++];
+                maxDist[v] = t == 0 ? dist[v] : Math.max(maxDist[v], dist[v]);
+
+                int start = graph.parentStart(v);
+                int end = graph.parentEnd(v);
+                scratch.edges += end - start;
+                for (int j = start; j < end; j++) {
+                    int p = graph.parentAt(v, j);
+                    if ((reached[p >>> 6] & (1L << p)) == 0) {
+                        reached[p >>> 6] |= 1L << p;
+                        dist[p] = dist[v] + 1;
+                        queue[tail++] = p;
+                    }
+                }
+            }
+            scratch.visited += tail;
+
+            long any = 0;
+            for (int w = 0; w < words; w++) {
+                long word = t == 0 ? reached[w] : common[w] & reached[w];
+                common[w] = word;
+                any |= word;
+            }
+            if (any == 0) return new int[0];
+        }
+
+        // the targets themselves are not strict ancestors of all of them
+        for (int id : ids) {
+            common[id >>> 6] &= ~(1L << id);
+        }
+
+        int best = Integer.MAX_VALUE;
+        int count = 0;
+        for (int w = 0; w < words; w++) {
+            long word = common[w];
+            while (word != 0) {
+                int id = (w << 6) + Long.numberOfTrailingZeros(word);
+                word &= word - 1;
+                if (maxDist[id] < best) {
+                    best = maxDist[id];
+                    count = 0;
+                }
+                if (maxDist[id] == best) {
+                    queue[count++] = id;
+                }
+            }
+        }
+        // bits are scanned in id order, so the result is already sorted
+        return Arrays.copyOf(queue, count);
+    }
+
+    // Reverse BFS from target over parent edges. Every node it reaches is stamped with epoch and
+    // given the number of edges on its shortest path down to target; the target itself comes
+    // first in queue, followed by the returned number of strict ancestors.
+    static int distancesToAncestors(DagView graph, int target, int[] dist, int[] stamp, int epoch, int[] queue) {
+        return distancesToAncestors(graph, target, dist, stamp, epoch, queue, null);
+    }
+
+    // as above, adding the nodes and edges the search touched to the counters of work if given
+    private static int distancesToAncestors(DagView graph, int target, int[] dist, int[] stamp, int epoch,
+                                            int[] queue, DagScratch work) {
+        int head = 0;
+        int tail = 0;
+
+        queue[tail++] = target;
+        stamp[target] = epoch;
+        dist[target] = 0;
+
+        while (head < tail) {
+            int v = queue[head++];
+            int start = graph.parentStart(v);
+            int end = graph.parentEnd(v);
+            if (work != null) work.edges += end - start;
+            for (int j = start; j < end; j++) {
+                int p = graph.parentAt(v, j);
+                if (stamp[p] != epoch) {
+                    stamp[p] = epoch;
+                    dist[p] = dist[v] + 1;
+                    queue[tail++] = p;
+                }
+            }
+        }
+        if (work != null) work.visited += tail;
+        return tail - 1;
+    }
+}
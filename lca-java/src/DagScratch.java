@@ -0,0 +1,71 @@
+import java.util.Arrays;
+
+// Per-thread scratch space for DAG traversals.
+//
+// Marks and distances live in int[] arrays stamped with an epoch: an entry only counts if its
+// stamp equals the current epoch, so starting a new query is a single increment instead of a
+// clear. Each thread gets its own instance from a ThreadLocal pool, which lets any number of
+// threads query one shared, immutable graph without locks and without resetting anything.
+final class DagScratch {
+
+    private static final ThreadLocal<DagScratch> POOL = ThreadLocal.withInitial(DagScratch::new);
+
+    int[] queue = new int[0];
+    int[] dist1 = new int[0];
+    int[] dist2 = new int[0];
+    int[] stamp1 = new int[0];
+    int[] stamp2 = new int[0];
+    int epoch;
+    private long[][] bits = new long[2][0];    // bitsets for k-ary queries, cleared by the caller
+
+    // work done by the last query on this thread, read by LcaMetrics recording
+    int visited;
+    int edges;
+
+    private DagScratch() {
+    }
+
+    // Returns this thread's scratch, sized for n nodes and with all marks cleared
+    static DagScratch forQuery(int n) {
+        DagScratch scratch = POOL.get();
+        scratch.ensureCapacity(n);
+        scratch.nextEpoch();
+        scratch.visited = 0;
+        scratch.edges = 0;
+        return scratch;
+    }
+
+    // bitset number which of at least words longs, with unspecified contents
+    long[] bits(int words, int which) {
+        if (bits[which].length < words) {
+            bits[which] = new long[Math.max(words, bits[which].length + (bits[which].length >> 1))];
+        }
+        return bits[which];
+    }
+
+    // this thread's scratch as the last query left it
+    static DagScratch current() {
+        return POOL.get();
+    }
+
+    private void ensureCapacity(int n) {
+        if (queue.length >= n) return;
+
+        int capacity = Math.max(n, queue.length + (queue.length >> 1));
+        queue = new int[capacity];
+        dist1 = new int[capacity];
+        dist2 = new int[capacity];
+        stamp1 = new int[capacity];
+        stamp2 = new int[capacity];
+        epoch = 0;
+    }
+
+    private void nextEpoch() {
+        epoch++;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(stamp1, 0);
+            Arrays.fill(stamp2, 0);
+            epoch = 1;
+        }
+    }
+}
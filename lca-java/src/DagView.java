@@ -0,0 +1,29 @@
+// Read-only, id-based view of a DAG's adjacency in compressed sparse rows, shared by the in-heap
+// CompactDag and the file-backed MappedDag so the id-level algorithms run on either.
+//
+// Ids are dense in [0, size()). The parents of id v are parentAt(v, j) for j in
+// [parentStart(v), parentEnd(v)), and likewise for children. Stores with one flat edge array
+// ignore the id; stores with one array per node use it.
+public interface DagView {
+
+    int size();
+
+    int edgeCount();
+
+    int value(int id);
+
+    // returns the id of the first node holding val, or -1 if there is none
+    int idOf(int val);
+
+    int childStart(int id);
+
+    int childEnd(int id);
+
+    int childAt(int id, int index);
+
+    int parentStart(int id);
+
+    int parentEnd(int id);
+
+    int parentAt(int id, int index);
+}
@@ -1,83 +1,243 @@
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 public class DirectedAcyclicGraph {
 
     ArrayList<Node> nodes;
 
+    // value -> first node in 'nodes' holding it; covers nodes[0 .. indexedCount)
+    private final IntObjectHashMap<Node> nodeOfVal = new IntObjectHashMap<>();
+    private int indexedCount;
+
+    // snapshot used by getLCAs, dropped whenever the structure changes
+    private volatile DagLcaEngine lcaEngine;
+
+    // optional ancestor index, answering bfsForTarget without a search
+    private DagLcaEngine indexedSnapshot;
+    private ReachabilityIndex reachability;
+
+    // optional index kept up to date as the graph grows; takes over getLCAs and bfsForTarget
+    private IncrementalDagIndex incrementalIndex;
+    private long incrementalBudget;    // memory budget the incremental index was enabled with
+
+    // optional getLCAs results by value pair, cleared whenever the structure changes
+    private LcaCache<ArrayList<Node>> lcaCache;
+
+    // receives the steps of bfsForTarget and the colouring passes; null unless tracing
+    private LcaTraceListener traceListener;
+
+    // receives getLCAs latencies and work, cache lookups and index builds; null unless measuring
+    private LcaMetrics metrics;
+
+    // The graph works on nodes itself, so nodes appended to it later, or through getNodes(), join
+    // the graph. Several graphs may share nodes or the whole list.
     public DirectedAcyclicGraph(ArrayList<Node> nodes) {
         this.nodes = nodes;
+        syncIndex();
     }
 
     public ArrayList<Node> getNodes() {
         return nodes;
     }
 
+    // Returns the common ancestors of target1 and target2 whose longer shortest path down to a
+    // target is as short as possible. Runs in O(V + E) using two reverse BFS passes; it no longer
+    // colours the nodes, so no resetColors call is needed between queries. Ties come back in the
+    // order the nodes appear in getNodes(); they used to come back in HashMap order.
     public ArrayList<Node> getLCAs(Node target1, Node target2) {
+        LcaMetrics metrics = this.metrics;
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        // values only identify the first node holding them, so other nodes bypass the cache
+        if (lcaCache != null && getNodeWithValue(target1.getVal()) == target1
+                && getNodeWithValue(target2.getVal()) == target2) {
+            ArrayList<Node> cached = lcaCache.get(target1.getVal(), target2.getVal());
+            if (cached != null) {
+                if (metrics != null) {
+                    metrics.recordCacheHit();
+                    metrics.recordQuery(System.nanoTime() - start, 0, 0);
+                }
+                return new ArrayList<>(cached);
+            }
+            if (metrics != null) metrics.recordCacheMiss();
 
-        ArrayList<Node> lCAs = new ArrayList<>();
-
-        colourAncestorsBlue(target1);
-        colourAncestorsRed(target2);
-
-        HashMap<Node, Integer> maxDistToTarget1Target2 = new HashMap<>();
+            ArrayList<Node> lCAs = computeLCAs(target1, target2, metrics, start);
+            lcaCache.put(target1.getVal(), target2.getVal(), new ArrayList<>(lCAs));
+            return lCAs;
+        }
+        return computeLCAs(target1, target2, metrics, start);
+    }
 
-        ArrayList<Node> redNodes = getRedNodes();
+    private ArrayList<Node> computeLCAs(Node target1, Node target2, LcaMetrics metrics, long start) {
+        // both paths below run DagLcaEngine.lowestCommonAncestorIds, which leaves the work of the
+        // query in this thread's scratch; a target outside the graph returns before any search,
+        // so start from zero
+        DagScratch work = null;
+        if (metrics != null) {
+            work = DagScratch.current();
+            work.visited = 0;
+            work.edges = 0;
+        }
 
-        for (Node redNode: redNodes) {
-            ArrayList<Node> pathToTarget1 = shortestPath(redNode, target1);
-            ArrayList<Node> pathToTarget2 = shortestPath(redNode, target2);
+        ArrayList<Node> lCAs;
+        if (incrementalIndex != null) {
+            syncIndex();
+            lCAs = incrementalIndex.getLCAs(target1, target2);
+        } else {
+            lCAs = lcaEngine().getLCAs(target1, target2);
+        }
 
-            maxDistToTarget1Target2.put(redNode, Math.max(pathToTarget1.size(), pathToTarget2.size()));
+        if (metrics != null) {
+            metrics.recordQuery(System.nanoTime() - start, work.visited, work.edges);
         }
+        return lCAs;
+    }
 
-        // find the smallest distance
-        int minPathLength = Integer.MAX_VALUE;
+    // LCAs of a whole set of targets: their common strict ancestors whose longest shortest path
+    // down to a target is as short as possible. One reverse BFS per target, with the ancestor sets
+    // intersected as bitsets, instead of chaining pairwise getLCAs calls. Throws
+    // IllegalArgumentException if no target is given.
+    public ArrayList<Node> getLCAs(Node... targets) {
+        if (targets.length == 0) {
+            throw new IllegalArgumentException("LCA of an empty set of nodes");
+        }
+        if (incrementalIndex != null) {
+            syncIndex();
+            return incrementalIndex.getLCAs(targets);
+        }
+        return lcaEngine().getLCAs(targets);
+    }
 
-        for (Map.Entry<Node, Integer> entry : maxDistToTarget1Target2.entrySet()) {
-            Node redNode = entry.getKey();
-            Integer distance = entry.getValue();
+    // Puts a cache of up to capacity results in front of getLCAs, so repeated pairs cost a hash
+    // probe and a copy of the result. Any change to the graph empties it.
+    public LcaCache<ArrayList<Node>> enableLcaCache(int capacity) {
+        lcaCache = new LcaCache<>(capacity);
+        return lcaCache;
+    }
 
-            System.out.println("NODE: "+redNode+"\tDISTANCE: "+distance);
+    public void disableLcaCache() {
+        lcaCache = null;
+    }
 
-            if (distance < minPathLength) {
-                minPathLength = distance;
-            }
-        }
+    // Reports the steps of bfsForTarget, getBlueNodes and getRedNodes to listener; null turns
+    // tracing off again. Searches answered by an index have no steps to report.
+    public void setTraceListener(LcaTraceListener listener) {
+        traceListener = listener;
+    }
 
-        for (Map.Entry<Node, Integer> entry : maxDistToTarget1Target2.entrySet()) {
-            Node redNode = entry.getKey();
-            Integer distance = entry.getValue();
+    // Records getLCAs queries, cache lookups and index builds into metrics, which may be shared
+    // with other graphs; null stops recording
+    public void setMetrics(LcaMetrics metrics) {
+        this.metrics = metrics;
+    }
 
-            if (distance == minPathLength) lCAs.add(redNode);
-        }
+    // Snapshot of the graph for repeated getLCAs queries; rebuild it after the graph changes.
+    // The engine can be shared between threads.
+    public DagLcaEngine buildLcaEngine() {
+        return new DagLcaEngine(this);
+    }
 
-        return lCAs;
+    // Builds an ancestor index so bfsForTarget (and the colouring built on it) no longer searches.
+    // The scheme is picked to fit memoryBudgetBytes: a transitive closure for small graphs,
+    // interval labels for large ones. The index covers the graph as it is now; call this again,
+    // or dropReachabilityIndex, after changing it.
+    public ReachabilityIndex buildReachabilityIndex(long memoryBudgetBytes) {
+        long start = System.nanoTime();
+        DagLcaEngine snapshot = new DagLcaEngine(this);
+        return useReachabilityIndex(snapshot, ReachabilityIndex.build(snapshot.graph, memoryBudgetBytes), start);
     }
 
-    // Returns the length of the shortest path from startNode to endNode via BFS
-    public ArrayList<Node> shortestPath(Node startNode, Node endNode) {
+    // Same index as buildReachabilityIndex(memoryBudgetBytes); a transitive closure is built on pool
+    public ReachabilityIndex buildReachabilityIndex(long memoryBudgetBytes, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        DagLcaEngine snapshot = new DagLcaEngine(this);
+        return useReachabilityIndex(snapshot,
+                new ParallelIndexBuilder(pool).reachabilityIndex(snapshot.graph, memoryBudgetBytes), start);
+    }
 
-        LinkedList<ArrayList<Node>> paths = new LinkedList<>();
-        paths.add(new ArrayList<>(Arrays.asList(startNode)));
+    public ReachabilityIndex buildReachabilityIndex() {
+        return buildReachabilityIndex(ReachabilityIndex.DEFAULT_MEMORY_BUDGET);
+    }
 
-        while (!paths.isEmpty()) {
-            ArrayList<Node> curPath = paths.remove();
+    private ReachabilityIndex useReachabilityIndex(DagLcaEngine snapshot, ReachabilityIndex index, long buildStart) {
+        if (metrics != null) metrics.recordIndexBuild(System.nanoTime() - buildStart);
+        indexedSnapshot = snapshot;
+        reachability = index;
+        return index;
+    }
 
-            Node lastElem = curPath.get(curPath.size()-1);
+    public void dropReachabilityIndex() {
+        indexedSnapshot = null;
+        reachability = null;
+    }
 
-            if (lastElem == endNode) {
-                return curPath;
+    // Starts keeping an index that stays valid as nodes and edges are added: getLCAs and
+    // bfsForTarget then run on it without rebuilding anything, and addChild refuses edges that
+    // would close a cycle. Its ancestor labels are kept to memoryBudgetBytes; past that,
+    // reachability is searched along the index's topological order instead. Throws
+    // IllegalStateException if the graph already has a cycle. Should nodes appended to
+    // getNodes() close one later, the index is dropped and queries go back to the snapshot engine.
+    public IncrementalDagIndex enableIncrementalIndex(long memoryBudgetBytes) {
+        if (incrementalIndex == null) {
+            syncIndex();
+            incrementalBudget = memoryBudgetBytes;
+            incrementalIndex = IncrementalDagIndex.build(nodes, memoryBudgetBytes);
+            if (incrementalIndex == null) {
+                throw new IllegalStateException("Graph contains a cycle");
             }
+        }
+        return incrementalIndex;
+    }
+
+    public IncrementalDagIndex enableIncrementalIndex() {
+        return enableIncrementalIndex(ReachabilityIndex.DEFAULT_MEMORY_BUDGET);
+    }
 
-            for (Node child: lastElem.getChildren()) {
-                ArrayList<Node> newPath = new ArrayList<>(curPath);
-                newPath.add(child);
+    public void disableIncrementalIndex() {
+        incrementalIndex = null;
+    }
 
-                paths.add(newPath);
+    // Immutable compressed-sparse-row copy of the graph for traversal-heavy work
+    public CompactDag freeze() {
+        return new CompactDag(nodes);
+    }
+
+    // Batch form of getLCAs for queries given as node values: lcas[i] holds the values of the LCAs
+    // of vals1[i] and vals2[i]. Ancestor sets are computed once per distinct node in the batch
+    // and shared between the queries that use them.
+    public int[][] getLCAs(int[] vals1, int[] vals2) {
+        return new DagBatchLca(lcaEngine()).getLCAs(vals1, vals2);
+    }
+
+    // Returns the shortest path from startNode down to endNode (both included), or null if there is
+    // none. The BFS runs over the live child lists, so edges added to them directly count at once,
+    // and it keeps one back pointer per node reached instead of copying every partial path.
+    // CompactDag.shortestPath does the same over ids with DagDistanceEngine.
+    public ArrayList<Node> shortestPath(Node startNode, Node endNode) {
+        IdentityHashMap<Node, Node> reachedFrom = new IdentityHashMap<>();
+        ArrayDeque<Node> q = new ArrayDeque<>();
+        reachedFrom.put(startNode, startNode);
+        q.add(startNode);
+
+        while (!q.isEmpty()) {
+            Node curNode = q.remove();
+            if (curNode == endNode) {
+                ArrayList<Node> path = new ArrayList<>();
+                for (Node n = endNode; n != startNode; n = reachedFrom.get(n)) {
+                    path.add(n);
+                }
+                path.add(startNode);
+                Collections.reverse(path);
+                return path;
+            }
+            for (Node child : curNode.getChildren()) {
+                if (!reachedFrom.containsKey(child)) {
+                    reachedFrom.put(child, curNode);
+                    q.add(child);
+                }
             }
         }
-
         return null;
     }
 
@@ -106,17 +266,34 @@ public class DirectedAcyclicGraph {
     }
 
     public boolean bfsForTarget(Node startNode, Node target) {
+        if (incrementalIndex != null) {
+            syncIndex();
+            int startId = incrementalIndex.idOf(startNode);
+            int targetId = incrementalIndex.idOf(target);
+            if (startId != -1 && targetId != -1) {
+                return incrementalIndex.isAncestor(startId, targetId);
+            }
+        }
+        if (reachability != null && indexedSnapshot.size() == nodes.size()) {
+            int startId = indexedSnapshot.idOf(startNode);
+            int targetId = indexedSnapshot.idOf(target);
+            if (startId != -1 && targetId != -1) {
+                return reachability.isAncestor(startId, targetId);
+            }
+        }
+
         LinkedList<Node> q = new LinkedList<>();
         q.add(startNode);
         boolean targetFound = false;
 
-        System.out.println("\nPerforming BFS w starting node "+startNode+" seeking target " + target + "\n");
+        LcaTraceListener trace = traceListener;
+        if (trace != null) trace.searchStarted(startNode, target);
 
         while(!q.isEmpty()) {
-            System.out.println("Queue: "+Arrays.toString(q.toArray()));
+            if (trace != null) trace.searchQueue(q);
             Node curNode = q.remove();
 
-            System.out.println("Cur Node: " + curNode);
+            if (trace != null) trace.searchVisited(curNode);
 
             if (curNode.getChildren().contains(target)) {
                 targetFound = true;
@@ -124,9 +301,9 @@ public class DirectedAcyclicGraph {
             }
             for (Node n: curNode.getChildren()) {
                 q.add(n);
-                System.out.println("Adding "+n+" to queue");
+                if (trace != null) trace.searchEnqueued(n);
             }
-            System.out.println();
+            if (trace != null) trace.searchStepDone();
         }
 
         return targetFound;
@@ -176,14 +353,15 @@ public class DirectedAcyclicGraph {
 
         ArrayList<Node> blueNodes = new ArrayList<>();
 
-        System.out.println("Blue nodes: ");
         for (Node n:nodes) {
             if (n.getColor().toLowerCase() == "blue") {
-                System.out.println("\t"+n);
                 blueNodes.add(n);
             }
         }
 
+        LcaTraceListener trace = traceListener;
+        if (trace != null) trace.colouredNodes(Node.Color.BLUE, blueNodes);
+
         return blueNodes;
 
     }
@@ -192,14 +370,15 @@ public class DirectedAcyclicGraph {
 
         ArrayList<Node> redNodes = new ArrayList<>();
 
-        System.out.println("\nRed nodes: ");
         for (Node n:nodes) {
             if (n.getColor().toLowerCase() == "red") {
-                System.out.println("\t"+n);
                 redNodes.add(n);
             }
         }
 
+        LcaTraceListener trace = traceListener;
+        if (trace != null) trace.colouredNodes(Node.Color.RED, redNodes);
+
         return redNodes;
 
     }
@@ -212,17 +391,91 @@ public class DirectedAcyclicGraph {
         }
     }
 
-    // returns a reference to the node in the graph with a given value val
+    // returns a reference to the node in the graph with a given value val, in O(1) via a hash index
     public Node getNodeWithValue(int val) {
-        Node theNode = null;
+        syncIndex();
+        return nodeOfVal.get(val);
+    }
 
-        for (Node n: nodes) {
-            if (n.getVal() == val) {
-                return n;
+    // Asked by a node of this graph before it gains a child; false if the incremental index is on
+    // and the edge would close a cycle
+    boolean acceptsChild(Node parent, Node child) {
+        if (incrementalIndex == null) return true;
+
+        syncIndex();
+        return incrementalIndex.acceptsEdge(parent, child);
+    }
+
+    // Called by a node of this graph whenever it gains a child. The node list is left alone: a
+    // child that is not in it stays outside the graph, as it always has.
+    void childAdded(Node parent, Node child) {
+        syncIndex();
+        if (incrementalIndex != null) {
+            incrementalIndex.edgeAdded(parent, child);
+        }
+        structureChanged();
+    }
+
+    // Tells the graph that child lists were changed directly rather than through addChild, so the
+    // cached LCA snapshot, the LCA cache and any reachability index are dropped and the incremental
+    // index is rebuilt. Throws IllegalStateException if the incremental index is on and the
+    // edges now contain a cycle; the index is dropped then.
+    public void edgesChanged() {
+        syncIndex();
+        structureChanged();
+        if (incrementalIndex != null) {
+            incrementalIndex = IncrementalDagIndex.build(nodes, incrementalBudget);
+            if (incrementalIndex == null) {
+                throw new IllegalStateException("Graph contains a cycle");
             }
         }
+    }
+
+    private void structureChanged() {
+        if (lcaCache != null) lcaCache.clear();
+        lcaEngine = null;
+        dropReachabilityIndex();
+    }
+
+    // LCA snapshot of the current structure. Node.addChild and edgesChanged drop it, and nodes
+    // appended to getNodes() change the size.
+    DagLcaEngine lcaEngine() {
+        DagLcaEngine engine = lcaEngine;
+        if (engine == null || engine.size() != nodes.size()) {
+            long start = System.nanoTime();
+            engine = new DagLcaEngine(this);
+            lcaEngine = engine;
+            if (metrics != null) metrics.recordIndexBuild(System.nanoTime() - start);
+        }
+        return engine;
+    }
 
-        return theNode;
+    // Picks up nodes appended to the list returned by getNodes() since the last call
+    private void syncIndex() {
+        if (nodes.size() != indexedCount && lcaCache != null) {
+            lcaCache.clear();
+        }
+        if (nodes.size() < indexedCount) {
+            nodeOfVal.clear();
+            indexedCount = 0;
+        }
+
+        for (int i = indexedCount; i < nodes.size(); i++) {
+            Node n = nodes.get(i);
+            n.addGraph(this);
+            nodeOfVal.putIfAbsent(n.getVal(), n);
+        }
+        indexedCount = nodes.size();
+
+        // a cycle among the nodes picked up here came without addChild, so nothing refused it;
+        // the index is dropped rather than failing whichever query noticed
+        if (incrementalIndex != null && incrementalIndex.size() != nodes.size()) {
+            if (nodes.size() < incrementalIndex.size()) {
+                incrementalIndex = IncrementalDagIndex.build(nodes, incrementalBudget);
+            } else if (!incrementalIndex.sync(nodes)) {
+                incrementalIndex = null;
+            }
+        }
     }
 
 }
@@ -0,0 +1,208 @@
+// Answers LCA queries on a static binary tree in O(1) after an O(n log n) build.
+//
+// The tree is flattened to dense ids (see FlatTree) and walked once to produce its Euler tour:
+// every node is written when it is first entered and again each time the walk returns to it from
+// a child. The LCA of two nodes is the shallowest node written between their first occurrences,
+// which a sparse table over the tour answers with two overlapping power-of-two lookups.
+public class EulerTourIndex {
+
+    final FlatTree tree;
+
+    final int[] euler;       // node id at each tour position
+    final int[] tourDepth;   // depth of euler[i], kept alongside for locality
+    final int[] first;       // first tour position of each node id
+    final int[][] sparse;    // sparse[k][i] = tour position of min depth in [i, i + 2^k)
+
+    public EulerTourIndex(BinaryTreeNode root) {
+        this(new FlatTree(root));
+    }
+
+    public EulerTourIndex(FlatTree tree) {
+        this.tree = tree;
+
+        int n = tree.size();
+        int tourLength = n == 0 ? 0 : 2 * n - 1;
+
+        euler = new int[tourLength];
+        tourDepth = new int[tourLength];
+        first = new int[n];
+
+        buildTour();
+        sparse = buildSparseTable(tourDepth);
+    }
+
+    // Reassembles an index from a saved tour and sparse table (see LcaSnapshot); the rest is
+    // derived in one pass over the tour
+    EulerTourIndex(FlatTree tree, int[] euler, int[][] sparse) {
+        this.tree = tree;
+        this.euler = euler;
+        this.sparse = sparse;
+
+        tourDepth = new int[euler.length];
+        first = new int[tree.size()];
+        for (int pos = euler.length - 1; pos >= 0; pos--) {
+            tourDepth[pos] = tree.depth[euler[pos]];
+            first[euler[pos]] = pos;
+        }
+    }
+
+    // wraps arrays already built elsewhere (see ParallelIndexBuilder)
+    EulerTourIndex(FlatTree tree, int[] euler, int[] tourDepth, int[] first, int[][] sparse) {
+        this.tree = tree;
+        this.euler = euler;
+        this.tourDepth = tourDepth;
+        this.first = first;
+        this.sparse = sparse;
+    }
+
+    private void buildTour() {
+        int n = tree.size();
+        if (n == 0) return;
+
+        // state[v]: 0 = left child not visited yet, 1 = right child not visited yet, 2 = done
+        int[] stack = new int[n];
+        byte[] state = new byte[n];
+        int top = 0;
+        int pos;
+
+        stack[top++] = 0;
+        first[0] = 0;
+        pos = emit(0, 0);
+
+        while (top > 0) {
+            int v = stack[top - 1];
+
+            if (state[v] == 0) {
+                state[v] = 1;
+                int l = tree.lChild[v];
+                if (l != -1) {
+                    stack[top++] = l;
+                    first[l] = pos;
+                    pos = emit(l, pos);
+                    continue;
+                }
+            }
+            if (state[v] == 1) {
+                state[v] = 2;
+                int r = tree.rChild[v];
+                if (r != -1) {
+                    stack[top++] = r;
+                    first[r] = pos;
+                    pos = emit(r, pos);
+                    continue;
+                }
+            }
+
+            top--;
+            if (top > 0) {
+                pos = emit(stack[top - 1], pos);
+            }
+        }
+    }
+
+    private int emit(int id, int pos) {
+        euler[pos] = id;
+        tourDepth[pos] = tree.depth[id];
+        return pos + 1;
+    }
+
+    private static int[][] buildSparseTable(int[] depths) {
+        int m = depths.length;
+        int levels = m == 0 ? 1 : 32 - Integer.numberOfLeadingZeros(m);
+
+        int[][] table = new int[levels][];
+        table[0] = new int[m];
+        for (int i = 0; i < m; i++) {
+            table[0][i] = i;
+        }
+
+        for (int k = 1; k < levels; k++) {
+            int half = 1 << (k - 1);
+            int[] prev = table[k - 1];
+            int[] cur = new int[m - (1 << k) + 1];
+
+            for (int i = 0; i < cur.length; i++) {
+                int a = prev[i];
+                int b = prev[i + half];
+                cur[i] = depths[b] < depths[a] ? b : a;
+            }
+            table[k] = cur;
+        }
+        return table;
+    }
+
+    public int size() {
+        return tree.size();
+    }
+
+    // returns the id of the first node (in preorder) holding val, or -1 if there is none
+    public int idOf(int val) {
+        return tree.idOf(val);
+    }
+
+    public BinaryTreeNode node(int id) {
+        return tree.node(id);
+    }
+
+    public int depth(int id) {
+        return tree.depth[id];
+    }
+
+    // LCA of two node ids; does not allocate
+    public int lowestCommonAncestorId(int id1, int id2) {
+        int l = first[id1];
+        int r = first[id2];
+        if (l > r) {
+            int tmp = l;
+            l = r;
+            r = tmp;
+        }
+
+        return shallowestBetween(l, r);
+    }
+
+    // LCA of a set of node ids: every node of the set is first entered between the earliest and
+    // the latest of their first positions, so one range query over that span answers it
+    public int lowestCommonAncestorId(int... ids) {
+        if (ids.length == 0) {
+            throw new IllegalArgumentException("LCA of an empty set of nodes");
+        }
+        int l = first[ids[0]];
+        int r = l;
+        for (int i = 1; i < ids.length; i++) {
+            int pos = first[ids[i]];
+            if (pos < l) l = pos;
+            if (pos > r) r = pos;
+        }
+        return shallowestBetween(l, r);
+    }
+
+    // node of least depth in tour positions [l, r]
+    private int shallowestBetween(int l, int r) {
+        int k = 31 - Integer.numberOfLeadingZeros(r - l + 1);
+        int a = sparse[k][l];
+        int b = sparse[k][r - (1 << k) + 1];
+
+        return euler[tourDepth[b] < tourDepth[a] ? b : a];
+    }
+
+    // Same result as BinaryTree.getLowestCommonAncestor, or null if either value is not in the tree
+    public BinaryTreeNode getLowestCommonAncestor(int val1, int val2) {
+        int id1 = tree.idOf(val1);
+        int id2 = tree.idOf(val2);
+
+        if (id1 == -1 || id2 == -1) return null;
+
+        return tree.node(lowestCommonAncestorId(id1, id2));
+    }
+
+    // LCA of a set of values, or null if any of them is not in the tree
+    public BinaryTreeNode getLowestCommonAncestor(int... vals) {
+        int[] ids = new int[vals.length];
+        for (int i = 0; i < vals.length; i++) {
+            ids[i] = tree.idOf(vals[i]);
+            if (ids[i] == -1) return null;
+        }
+        return tree.node(lowestCommonAncestorId(ids));
+    }
+}
@@ -0,0 +1,107 @@
+import java.util.Arrays;
+
+// Flattens a pointer-based binary tree into parallel int[] arrays indexed by a dense node id.
+// Ids are assigned in preorder (root = 0, left subtree before right subtree), so a value that
+// occurs more than once resolves to the same node getPathTo would find first.
+public class FlatTree {
+
+    final BinaryTreeNode[] nodes;
+    final int[] vals;
+    final int[] parent;
+    final int[] lChild;
+    final int[] rChild;
+    final int[] depth;
+    final IntIntHashMap idOfVal;
+
+    public FlatTree(BinaryTreeNode root) {
+        int n = size(root);
+
+        nodes = new BinaryTreeNode[n];
+        vals = new int[n];
+        parent = new int[n];
+        lChild = new int[n];
+        rChild = new int[n];
+        depth = new int[n];
+        idOfVal = new IntIntHashMap(n);
+
+        if (n == 0) return;
+
+        // explicit preorder walk; each stack entry remembers the id of the parent that pushed it
+        BinaryTreeNode[] stack = new BinaryTreeNode[n];
+        int[] stackParent = new int[n];
+        boolean[] stackIsLeft = new boolean[n];
+        int top = 0;
+        int nextId = 0;
+
+        stack[top] = root;
+        stackParent[top] = -1;
+        top++;
+
+        while (top > 0) {
+            top--;
+            BinaryTreeNode cur = stack[top];
+            int p = stackParent[top];
+            int id = nextId++;
+
+            nodes[id] = cur;
+            vals[id] = cur.getVal();
+            parent[id] = p;
+            lChild[id] = -1;
+            rChild[id] = -1;
+            depth[id] = p == -1 ? 0 : depth[p] + 1;
+            idOfVal.putIfAbsent(cur.getVal(), id);
+
+            if (p != -1) {
+                if (stackIsLeft[top]) lChild[p] = id;
+                else rChild[p] = id;
+            }
+
+            if (cur.getrChild() != null) {
+                stack[top] = cur.getrChild();
+                stackParent[top] = id;
+                stackIsLeft[top] = false;
+                top++;
+            }
+            if (cur.getlChild() != null) {
+                stack[top] = cur.getlChild();
+                stackParent[top] = id;
+                stackIsLeft[top] = true;
+                top++;
+            }
+        }
+    }
+
+    public int size() {
+        return nodes.length;
+    }
+
+    // returns the id of the first node (in preorder) holding val, or -1 if there is none
+    public int idOf(int val) {
+        return idOfVal.get(val);
+    }
+
+    public BinaryTreeNode node(int id) {
+        return nodes[id];
+    }
+
+    static int size(BinaryTreeNode root) {
+        if (root == null) return 0;
+
+        BinaryTreeNode[] stack = new BinaryTreeNode[16];
+        int top = 0;
+        int count = 0;
+        stack[top++] = root;
+
+        while (top > 0) {
+            BinaryTreeNode cur = stack[--top];
+            count++;
+
+            if (top + 2 > stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            if (cur.getlChild() != null) stack[top++] = cur.getlChild();
+            if (cur.getrChild() != null) stack[top++] = cur.getrChild();
+        }
+        return count;
+    }
+}
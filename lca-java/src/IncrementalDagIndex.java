@@ -0,0 +1,542 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+// Reachability and LCA index for a DirectedAcyclicGraph that keeps itself valid while nodes and
+// edges are added, instead of being rebuilt after every change.
+//
+// It holds its own adjacency, one growable array per node and direction, with ids matching the
+// graph's node list. Two structures are kept up to date per edge:
+//
+//   - a topological order, maintained with the Pearce-Kelly algorithm: an edge u -> v that
+//     already agrees with the order costs nothing; otherwise only the nodes whose position lies
+//     between v and u and that are reachable from v, or reach u, are searched and shuffled;
+//   - descendant bit rows as ancestor labels, while they fit the memory budget. An edge u -> v
+//     ORs v's row into u and into those ancestors of u that could not reach v before, and stops
+//     at any ancestor that already could, as everything above it could too.
+//
+// Rows cost up to n^2 / 8 bytes, like TransitiveClosureIndex, but only grow as far as the highest
+// descendant. They are not built when the full closure would exceed the budget, and are dropped
+// for good once they outgrow it. isAncestor then walks down from the ancestor, pruned by the
+// order: a node placed after the descendant cannot lead to it. The order also answers every query
+// whose ancestor is not placed before its descendant without touching rows or edges. Interval
+// labels (GRAIL) would bound memory too, but every edge that Pearce-Kelly reorders would have to
+// relabel them, so the order itself is the fallback.
+//
+// An edge whose child already reaches its parent would close a cycle and is refused. LCA queries
+// run the usual reverse BFS (DagLcaEngine) on the live adjacency. The index is not synchronised:
+// updates must not run concurrently with queries.
+//
+// Edges reach the index through Node.addChild on a node of the graph, which asks acceptsEdge
+// first and then calls edgeAdded, and through the child lists of nodes appended to the graph,
+// which sync reads. An edge to a node that is not in the graph yet waits until that node is
+// synced; acceptsEdge already refuses one whose child reaches the parent through nodes outside
+// the graph. Edges added to a child list directly are not seen; DirectedAcyclicGraph.edgesChanged
+// rebuilds the index after such changes.
+public class IncrementalDagIndex implements DagView, ReachabilityIndex {
+
+    private final IdentityHashMap<Node, Integer> idOfNode = new IdentityHashMap<>();
+    private final IntIntHashMap idOfVal = new IntIntHashMap(16);
+    private final ArrayList<Node> nodes = new ArrayList<>();
+    private int[] vals = new int[16];
+    private int n;
+    private int edges;
+
+    // edges from indexed nodes to nodes that are not indexed yet, by child
+    private final IdentityHashMap<Node, ArrayList<Node>> waitingParents = new IdentityHashMap<>();
+
+    private int[][] children = new int[16][];
+    private int[] childCount = new int[16];
+    private int[][] parents = new int[16][];
+    private int[] parentCount = new int[16];
+
+    private int[] ord = new int[16];       // position of each id in the topological order
+    private int[] nodeAt = new int[16];    // id at each position
+
+    private final long memoryBudget;
+    private long[][] descendants;    // null once the rows would not fit memoryBudget
+    private long rowWords;           // longs held by all rows
+
+    // scratch for the searches in addEdge
+    private int[] mark = new int[16];
+    private int epoch;
+    private int[] stack = new int[16];
+    private long[] forward = new long[16];
+    private long[] backward = new long[16];
+
+    private IncrementalDagIndex(ArrayList<Node> graphNodes, CompactDag dag, int[] order, long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        TransitiveClosureIndex closure = null;
+        if (TransitiveClosureIndex.memoryBytes(dag.size()) <= memoryBudget) {
+            closure = new TransitiveClosureIndex(dag);
+            descendants = new long[vals.length][];    // grown with vals by addNode
+        }
+
+        for (Node node : graphNodes) {
+            addNode(node);
+        }
+        for (int id = 0; id < n; id++) {
+            for (int j = dag.childOffsets[id]; j < dag.childOffsets[id + 1]; j++) {
+                link(id, dag.childTargets[j]);
+            }
+            if (closure != null) {
+                descendants[id] = closure.descendantBits(id);
+                rowWords += descendants[id].length;
+            }
+        }
+        for (Node node : graphNodes) {
+            for (Node child : node.getChildren()) {
+                if (!idOfNode.containsKey(child)) waitFor(child, node);
+            }
+        }
+        for (int pos = 0; pos < n; pos++) {
+            nodeAt[pos] = order[pos];
+            ord[order[pos]] = pos;
+        }
+    }
+
+    // Indexes every node of nodes and the edges between them, keeping descendant rows while they
+    // fit memoryBudget bytes. Returns null if the edges contain a cycle.
+    static IncrementalDagIndex build(ArrayList<Node> graphNodes, long memoryBudget) {
+        CompactDag dag = new CompactDag(graphNodes);
+        int[] order = dag.topologicalOrderOrNull();
+        return order == null ? null : new IncrementalDagIndex(graphNodes, dag, order, memoryBudget);
+    }
+
+    /* Updates ----------------- */
+
+    // true if parent -> child can be added without closing a cycle. A child that is not indexed
+    // is not in the graph yet, but the edge will be indexed once it joins, so it is refused if the
+    // child already reaches the parent through nodes outside the graph.
+    boolean acceptsEdge(Node parent, Node child) {
+        Integer parentId = idOfNode.get(parent);
+        if (parentId == null) return true;
+
+        Integer childId = idOfNode.get(child);
+        if (childId != null) {
+            return childId.intValue() != parentId && !isAncestor(childId, parentId);
+        }
+
+        IdentityHashMap<Node, Boolean> seen = new IdentityHashMap<>();
+        ArrayList<Node> pending = new ArrayList<>();
+        seen.put(child, Boolean.TRUE);
+        pending.add(child);
+        while (!pending.isEmpty()) {
+            Node cur = pending.remove(pending.size() - 1);
+            Integer curId = idOfNode.get(cur);
+            if (curId != null) {
+                // the rest of the way runs through the graph, which the index knows
+                if (curId.intValue() == parentId || isAncestor(curId, parentId)) return false;
+                continue;
+            }
+            for (Node next : cur.getChildren()) {
+                if (seen.put(next, Boolean.TRUE) == null) pending.add(next);
+            }
+        }
+        return true;
+    }
+
+    // Records the new edge parent -> child once acceptsEdge allowed it; an edge to a node that is
+    // not indexed waits until that node is synced
+    void edgeAdded(Node parent, Node child) {
+        Integer parentId = idOfNode.get(parent);
+        if (parentId == null) return;
+
+        Integer childId = idOfNode.get(child);
+        if (childId != null) {
+            addEdge(parentId, childId);
+        } else {
+            waitFor(child, parent);
+        }
+    }
+
+    // Indexes the nodes appended to the graph's list since the last call, with their edges and
+    // the waiting edges into them. Returns false, and leaves the index unusable, if the appended
+    // child lists close a cycle: that happened without addChild, so there is nothing to refuse,
+    // and the caller drops the index rather than failing the query that found it.
+    boolean sync(ArrayList<Node> graphNodes) {
+        int first = n;
+        for (int i = first; i < graphNodes.size(); i++) {
+            addNode(graphNodes.get(i));
+        }
+        for (int id = first; id < n; id++) {
+            Node node = nodes.get(id);
+            for (Node child : node.getChildren()) {
+                Integer childId = idOfNode.get(child);
+                if (childId == null) {
+                    waitFor(child, node);
+                } else if (!tryAddEdge(id, childId)) {
+                    return false;
+                }
+            }
+            if (!waitingParents.isEmpty()) {
+                ArrayList<Node> waiting = waitingParents.remove(node);
+                if (waiting != null) {
+                    for (Node parent : waiting) {
+                        if (!tryAddEdge(idOfNode.get(parent), id)) return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private void waitFor(Node child, Node parent) {
+        waitingParents.computeIfAbsent(child, c -> new ArrayList<>(1)).add(parent);
+    }
+
+    // Adds the edge parentId -> childId. Throws IllegalStateException if it would close a cycle,
+    // which acceptsEdge has ruled out for every edge that comes through addChild.
+    void addEdge(int parentId, int childId) {
+        if (!tryAddEdge(parentId, childId)) {
+            throw new IllegalStateException("Edge " + vals[parentId] + " -> " + vals[childId] + " would close a cycle");
+        }
+    }
+
+    private boolean tryAddEdge(int parentId, int childId) {
+        if (parentId == childId || isAncestor(childId, parentId)) {
+            return false;
+        }
+
+        link(parentId, childId);
+        if (ord[parentId] > ord[childId]) {
+            reorder(parentId, childId);
+        }
+        if (descendants != null) {
+            addDescendants(parentId, childId);
+        }
+        return true;
+    }
+
+    /* Queries ----------------- */
+
+    // id of node, or -1 if it is not indexed
+    public int idOf(Node node) {
+        Integer id = idOfNode.get(node);
+        return id == null ? -1 : id;
+    }
+
+    public Node node(int id) {
+        return nodes.get(id);
+    }
+
+    @Override
+    public boolean isAncestor(int ancestorId, int descendantId) {
+        // an ancestor always comes first in the order
+        if (ord[ancestorId] >= ord[descendantId]) return false;
+
+        if (descendants != null) {
+            return hasDescendant(ancestorId, descendantId);
+        }
+        return reachesWithinOrder(ancestorId, descendantId);
+    }
+
+    // true while the descendant rows fit the memory budget; isAncestor searches the graph otherwise
+    public boolean keepsDescendantRows() {
+        return descendants != null;
+    }
+
+    // Ids of the LCAs of two node ids, with the same semantics as DirectedAcyclicGraph.getLCAs.
+    // Runs the engine's query, so the nodes and edges it touches are counted for LcaMetrics.
+    public int[] getLCAs(int id1, int id2) {
+        return DagLcaEngine.lowestCommonAncestorIds(this, id1, id2);
+    }
+
+    public ArrayList<Node> getLCAs(Node target1, Node target2) {
+        ArrayList<Node> lCAs = new ArrayList<>();
+        int id1 = idOf(target1);
+        int id2 = idOf(target2);
+        if (id1 == -1 || id2 == -1) return lCAs;
+
+        for (int id : getLCAs(id1, id2)) {
+            lCAs.add(nodes.get(id));
+        }
+        return lCAs;
+    }
+
+    public int[] getLCAs(int... ids) {
+        return DagLcaEngine.lowestCommonAncestorIds(this, ids);
+    }
+
+    public ArrayList<Node> getLCAs(Node... targets) {
+        ArrayList<Node> lCAs = new ArrayList<>();
+        int[] ids = new int[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            ids[i] = idOf(targets[i]);
+            if (ids[i] == -1) return lCAs;
+        }
+
+        for (int id : getLCAs(ids)) {
+            lCAs.add(nodes.get(id));
+        }
+        return lCAs;
+    }
+
+    // Ids in an order where every node comes before its children
+    public int[] topologicalOrder() {
+        return Arrays.copyOf(nodeAt, n);
+    }
+
+    @Override
+    public long memoryBytes() {
+        long bytes = 40L * n + 8L * edges;
+        if (descendants != null) {
+            bytes += 16L * n + 8L * rowWords;
+        }
+        return bytes;
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public int edgeCount() {
+        return edges;
+    }
+
+    @Override
+    public int value(int id) {
+        return vals[id];
+    }
+
+    // returns the id of the first node holding val, or -1 if there is none
+    @Override
+    public int idOf(int val) {
+        return idOfVal.get(val);
+    }
+
+    @Override
+    public int childStart(int id) {
+        return 0;
+    }
+
+    @Override
+    public int childEnd(int id) {
+        return childCount[id];
+    }
+
+    @Override
+    public int childAt(int id, int index) {
+        return children[id][index];
+    }
+
+    @Override
+    public int parentStart(int id) {
+        return 0;
+    }
+
+    @Override
+    public int parentEnd(int id) {
+        return parentCount[id];
+    }
+
+    @Override
+    public int parentAt(int id, int index) {
+        return parents[id][index];
+    }
+
+    /* ------------------------- */
+
+    // new nodes go to the end of the topological order, which is valid as they have no parents yet
+    private void addNode(Node node) {
+        if (n == vals.length) {
+            int capacity = n * 2;
+            vals = Arrays.copyOf(vals, capacity);
+            children = Arrays.copyOf(children, capacity);
+            childCount = Arrays.copyOf(childCount, capacity);
+            parents = Arrays.copyOf(parents, capacity);
+            parentCount = Arrays.copyOf(parentCount, capacity);
+            ord = Arrays.copyOf(ord, capacity);
+            nodeAt = Arrays.copyOf(nodeAt, capacity);
+            if (descendants != null) descendants = Arrays.copyOf(descendants, capacity);
+            mark = Arrays.copyOf(mark, capacity);
+        }
+
+        int id = n++;
+        nodes.add(node);
+        idOfNode.put(node, id);
+        idOfVal.putIfAbsent(node.getVal(), id);
+        vals[id] = node.getVal();
+        children[id] = new int[2];
+        parents[id] = new int[2];
+        ord[id] = id;
+        nodeAt[id] = id;
+        if (descendants != null) descendants[id] = new long[0];
+    }
+
+    private void link(int parentId, int childId) {
+        if (childCount[parentId] == children[parentId].length) {
+            children[parentId] = Arrays.copyOf(children[parentId], childCount[parentId] * 2);
+        }
+        children[parentId][childCount[parentId]++] = childId;
+
+        if (parentCount[childId] == parents[childId].length) {
+            parents[childId] = Arrays.copyOf(parents[childId], parentCount[childId] * 2);
+        }
+        parents[childId][parentCount[childId]++] = parentId;
+        edges++;
+    }
+
+    // Pearce-Kelly: the edge u -> v points backwards in the order. Collect what v reaches and
+    // what reaches u within the positions [ord[v], ord[u]], then hand those positions out again
+    // with u's side first, each side keeping its own relative order.
+    private void reorder(int u, int v) {
+        int lower = ord[v];
+        int upper = ord[u];
+        nextEpoch();
+
+        int forwardCount = 0;
+        int top = 0;
+        stack[top++] = v;
+        mark[v] = epoch;
+        while (top > 0) {
+            int w = stack[--top];
+            forward = grow(forward, forwardCount);
+            forward[forwardCount++] = (long) ord[w] << 32 | w;
+            for (int k = 0; k < childCount[w]; k++) {
+                int c = children[w][k];
+                if (mark[c] != epoch && ord[c] < upper) {
+                    mark[c] = epoch;
+                    stack = grow(stack, top);
+                    stack[top++] = c;
+                }
+            }
+        }
+
+        int backwardCount = 0;
+        stack[top++] = u;
+        mark[u] = epoch;
+        while (top > 0) {
+            int w = stack[--top];
+            backward = grow(backward, backwardCount);
+            backward[backwardCount++] = (long) ord[w] << 32 | w;
+            for (int k = 0; k < parentCount[w]; k++) {
+                int p = parents[w][k];
+                if (mark[p] != epoch && ord[p] > lower) {
+                    mark[p] = epoch;
+                    stack = grow(stack, top);
+                    stack[top++] = p;
+                }
+            }
+        }
+
+        Arrays.sort(forward, 0, forwardCount);
+        Arrays.sort(backward, 0, backwardCount);
+
+        // the freed positions in ascending order, merged from both sorted lists
+        int total = forwardCount + backwardCount;
+        int[] positions = new int[total];
+        for (int i = 0, f = 0, b = 0; i < total; i++) {
+            if (b == backwardCount || (f < forwardCount && forward[f] < backward[b])) {
+                positions[i] = (int) (forward[f++] >>> 32);
+            } else {
+                positions[i] = (int) (backward[b++] >>> 32);
+            }
+        }
+
+        int i = 0;
+        for (int b = 0; b < backwardCount; b++) {
+            place((int) backward[b], positions[i++]);
+        }
+        for (int f = 0; f < forwardCount; f++) {
+            place((int) forward[f], positions[i++]);
+        }
+    }
+
+    private void place(int id, int position) {
+        ord[id] = position;
+        nodeAt[position] = id;
+    }
+
+    private boolean hasDescendant(int ancestorId, int descendantId) {
+        long[] row = descendants[ancestorId];
+        int word = descendantId >>> 6;
+        return word < row.length && (row[word] & (1L << descendantId)) != 0;
+    }
+
+    // Depth-first search down from ancestorId that only enters nodes placed before descendantId,
+    // as no other node can lead to it. Uses this thread's DagScratch, so queries may run
+    // concurrently, and counts its work there for LcaMetrics.
+    private boolean reachesWithinOrder(int ancestorId, int descendantId) {
+        int limit = ord[descendantId];
+        DagScratch work = DagScratch.forQuery(n);
+        int[] pending = work.queue;
+        int[] seen = work.stamp1;
+        int current = work.epoch;
+
+        int top = 0;
+        pending[top++] = ancestorId;
+        seen[ancestorId] = current;
+        while (top > 0) {
+            int w = pending[--top];
+            work.visited++;
+            for (int k = 0; k < childCount[w]; k++) {
+                int c = children[w][k];
+                work.edges++;
+                if (c == descendantId) return true;
+                if (ord[c] < limit && seen[c] != current) {
+                    seen[c] = current;
+                    pending[top++] = c;
+                }
+            }
+        }
+        return false;
+    }
+
+    // u gained child v: u and every ancestor of u that did not reach v yet now reach v and all
+    // that v reaches. Drops the rows if they no longer fit the budget.
+    private void addDescendants(int u, int v) {
+        long[] fromV = descendants[v];
+        nextEpoch();
+
+        int top = 0;
+        stack[top++] = u;
+        mark[u] = epoch;
+        while (top > 0) {
+            int a = stack[--top];
+            long[] row = descendants[a];
+
+            int need = Math.max(fromV.length, (v >>> 6) + 1);
+            if (row.length < need) {
+                rowWords += need - row.length;
+                row = Arrays.copyOf(row, need);
+                descendants[a] = row;
+            }
+            for (int w = 0; w < fromV.length; w++) {
+                row[w] |= fromV[w];
+            }
+            row[v >>> 6] |= 1L << v;
+
+            for (int k = 0; k < parentCount[a]; k++) {
+                int p = parents[a][k];
+                if (mark[p] != epoch && !hasDescendant(p, v)) {
+                    mark[p] = epoch;
+                    stack = grow(stack, top);
+                    stack[top++] = p;
+                }
+            }
+        }
+
+        if (16L * n + 8 * rowWords > memoryBudget) {
+            descendants = null;
+            rowWords = 0;
+        }
+    }
+
+    private void nextEpoch() {
+        if (++epoch == 0) {
+            Arrays.fill(mark, 0);
+            epoch = 1;
+        }
+    }
+
+    private static int[] grow(int[] array, int used) {
+        return used < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    private static long[] grow(long[] array, int used) {
+        return used < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+}
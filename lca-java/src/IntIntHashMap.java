@@ -0,0 +1,114 @@
+import java.util.Arrays;
+
+// Open-addressing int -> int map used by the indexes to resolve node values to dense ids
+// without boxing. Values are expected to be non-negative; get() returns -1 for a missing key.
+public class IntIntHashMap {
+
+    private static final int MISSING = -1;
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    public IntIntHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    // Table size for expectedSize keys, a power of two kept at most half full. LongIntHashMap and
+    // ObjectIntHashMap size their tables and hash int keys the same way; only the probe loops,
+    // which compare keys of their own type, are written out per map.
+    static int capacityFor(int expectedSize) {
+        return Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(int key) {
+        int slot = slotOf(key);
+        return used[slot] ? values[slot] : MISSING;
+    }
+
+    public boolean containsKey(int key) {
+        return used[slotOf(key)];
+    }
+
+    public void put(int key, int value) {
+        int slot = slotOf(key);
+        if (!used[slot]) {
+            insertAt(slot, key, value);
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    // Keeps the first value stored for a key, mirroring how the linear scans return the first match
+    public boolean putIfAbsent(int key, int value) {
+        int slot = slotOf(key);
+        if (used[slot]) return false;
+
+        insertAt(slot, key, value);
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void insertAt(int slot, int key, int value) {
+        keys[slot] = key;
+        values[slot] = value;
+        used[slot] = true;
+        size++;
+
+        if (size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    private int slotOf(int key) {
+        int slot = mix(key) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                used[slot] = true;
+                size++;
+            }
+        }
+    }
+
+    static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
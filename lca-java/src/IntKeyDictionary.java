@@ -0,0 +1,64 @@
+import java.util.Arrays;
+
+// KeyDictionary for int keys: ids in an IntIntHashMap, keys by id in an int[]
+public class IntKeyDictionary implements KeyDictionary<Integer> {
+
+    private final IntIntHashMap idOfKey;
+    private int[] keys;
+    private int size;
+
+    public IntKeyDictionary() {
+        this(16);
+    }
+
+    public IntKeyDictionary(int expectedSize) {
+        idOfKey = new IntIntHashMap(expectedSize);
+        keys = new int[Math.max(16, expectedSize)];
+    }
+
+    // add(Integer) without boxing
+    public int add(int key) {
+        int id = idOfKey.get(key);
+        if (id != -1) return id;
+
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[size] = key;
+        idOfKey.put(key, size);
+        return size++;
+    }
+
+    // idOf(Integer) without boxing
+    public int idOf(int key) {
+        return idOfKey.get(key);
+    }
+
+    // keyOf without boxing
+    public int intKeyOf(int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("No key with id " + id);
+        }
+        return keys[id];
+    }
+
+    @Override
+    public int add(Integer key) {
+        return add(key.intValue());
+    }
+
+    @Override
+    public int idOf(Integer key) {
+        return idOf(key.intValue());
+    }
+
+    @Override
+    public Integer keyOf(int id) {
+        return intKeyOf(id);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
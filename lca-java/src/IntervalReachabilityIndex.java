@@ -0,0 +1,156 @@
+import java.util.Random;
+
+// GRAIL-style reachability labels for graphs too large for a transitive closure.
+//
+// Each dimension is a randomised DFS over the graph that gives every node its postorder rank and
+// the smallest rank found in its subtree. If u reaches v then v's [low, rank] interval sits inside
+// u's in every dimension, so a failed containment check rules reachability out straight away.
+// Otherwise a DFS from u that only enters children whose intervals still contain v's settles it.
+// Uses 8 bytes per node per dimension.
+public class IntervalReachabilityIndex implements ReachabilityIndex {
+
+    static final int MAX_DIMENSIONS = 5;
+
+    private final CompactDag graph;
+    private final int dimensions;
+    private final int[] low;    // low[d * n + v]
+    private final int[] rank;   // rank[d * n + v]
+
+    public IntervalReachabilityIndex(CompactDag graph, int dimensions) {
+        this(graph, dimensions, 42L);
+    }
+
+    public IntervalReachabilityIndex(CompactDag graph, int dimensions, long seed) {
+        if (dimensions < 1) {
+            throw new IllegalArgumentException("At least one dimension is needed, got " + dimensions);
+        }
+
+        this.graph = graph;
+        this.dimensions = dimensions;
+
+        int n = graph.size();
+        low = new int[dimensions * n];
+        rank = new int[dimensions * n];
+
+        Random random = new Random(seed);
+        for (int d = 0; d < dimensions; d++) {
+            label(d * n, random);
+        }
+    }
+
+    // one randomised postorder walk, writing into low/rank starting at base
+    private void label(int base, Random random) {
+        int n = graph.size();
+        int[] roots = new int[n];
+        int rootCount = 0;
+        for (int v = 0; v < n; v++) {
+            if (graph.parentOffsets[v] == graph.parentOffsets[v + 1]) roots[rootCount++] = v;
+        }
+        shuffle(roots, rootCount, random);
+
+        // each stack entry walks its children from a random starting point
+        int[] stack = new int[n];
+        int[] start = new int[n];
+        int[] next = new int[n];
+        boolean[] visited = new boolean[n];
+        int nextRank = 0;
+
+        for (int r = 0; r < rootCount; r++) {
+            int top = 0;
+            stack[top++] = roots[r];
+            visited[roots[r]] = true;
+            enter(roots[r], start, next, random);
+
+            while (top > 0) {
+                int v = stack[top - 1];
+                int from = graph.childOffsets[v];
+                int degree = graph.childOffsets[v + 1] - from;
+
+                if (next[v] < degree) {
+                    int child = graph.childTargets[from + (start[v] + next[v]) % degree];
+                    next[v]++;
+                    if (!visited[child]) {
+                        visited[child] = true;
+                        enter(child, start, next, random);
+                        stack[top++] = child;
+                    }
+                    continue;
+                }
+
+                // all children finished: low is the smallest rank anywhere below v
+                top--;
+                int lowest = nextRank;
+                for (int j = from; j < from + degree; j++) {
+                    lowest = Math.min(lowest, low[base + graph.childTargets[j]]);
+                }
+                rank[base + v] = nextRank++;
+                low[base + v] = lowest;
+            }
+        }
+    }
+
+    private void enter(int v, int[] start, int[] next, Random random) {
+        int degree = graph.childOffsets[v + 1] - graph.childOffsets[v];
+        start[v] = degree == 0 ? 0 : random.nextInt(degree);
+        next[v] = 0;
+    }
+
+    @Override
+    public boolean isAncestor(int ancestorId, int descendantId) {
+        if (ancestorId == descendantId || !contains(ancestorId, descendantId)) return false;
+
+        DagScratch scratch = DagScratch.forQuery(graph.size());
+        int[] stack = scratch.queue;
+        int[] seen = scratch.stamp1;
+        int epoch = scratch.epoch;
+        int top = 0;
+
+        stack[top++] = ancestorId;
+        seen[ancestorId] = epoch;
+
+        while (top > 0) {
+            int v = stack[--top];
+            for (int j = graph.childOffsets[v]; j < graph.childOffsets[v + 1]; j++) {
+                int child = graph.childTargets[j];
+                if (child == descendantId) return true;
+
+                if (seen[child] != epoch && contains(child, descendantId)) {
+                    seen[child] = epoch;
+                    stack[top++] = child;
+                }
+            }
+        }
+        return false;
+    }
+
+    // true if v's interval lies inside u's in every dimension
+    private boolean contains(int u, int v) {
+        int n = graph.size();
+        for (int d = 0, base = 0; d < dimensions; d++, base += n) {
+            if (low[base + v] < low[base + u] || rank[base + v] > rank[base + u]) return false;
+        }
+        return true;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public long memoryBytes() {
+        return dimensions * memoryBytesPerDimension(graph.size());
+    }
+
+    static long memoryBytesPerDimension(int n) {
+        return 8L * n;
+    }
+
+    private static void shuffle(int[] values, int count, Random random) {
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+// Maps the keys of a structure's nodes to dense int ids 0 .. size() - 1, handed out in the order
+// the keys are first added. The LCA structures work on the ids alone, so keys are translated once
+// on the way in (add / idOf) and once on the way out (keyOf), and the algorithms never see them.
+//
+// IntKeyDictionary and LongKeyDictionary keep their keys in primitive arrays and hash maps, and
+// add primitive overloads of these methods so callers that know the key type never box;
+// ObjectKeyDictionary takes any key with equals and hashCode. CompactDagBuilder.forKeys builds a
+// CompactDag whose node ids are a dictionary's ids.
+public interface KeyDictionary<K> {
+
+    // id of key, given the next free id if it is new
+    int add(K key);
+
+    // id of key, or -1 if it has not been added
+    int idOf(K key);
+
+    // key holding id; throws IllegalArgumentException if no key has it
+    K keyOf(int id);
+
+    // number of keys, and so the number of ids in use
+    int size();
+}
@@ -0,0 +1,185 @@
+import java.util.Arrays;
+
+// Size-bounded LRU cache of LCA results, keyed on the pair of query values. LCA is symmetric, so
+// (a, b) and (b, a) share the entry stored under the packed long (min << 32 | max).
+//
+// Entries live in parallel arrays: an open-addressing table maps a key to its entry slot, and
+// prev/next link the slots from most to least recently used. A hit is one probe plus relinking
+// one slot; a put into a full cache reuses the least recently used slot. Nothing is allocated
+// per query.
+//
+// All methods are synchronized, so one cache can sit in front of a structure that is queried
+// from several threads.
+public class LcaCache<V> {
+
+    private static final long EMPTY = 0xFFFFFFFFL;    // the pair (0, -1), never a key as min > max
+
+    private final int capacity;
+
+    private final long[] table;     // key per table slot, EMPTY if free
+    private final int[] slotOf;     // entry slot per table slot
+    private final int mask;
+
+    private final long[] keys;
+    private final Object[] values;
+    private final int[] prev;
+    private final int[] next;
+    private int size;
+    private int head = -1;          // most recently used
+    private int tail = -1;          // least recently used
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public LcaCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Cache capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+
+        int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+        table = new long[tableSize];
+        slotOf = new int[tableSize];
+        mask = tableSize - 1;
+        Arrays.fill(table, EMPTY);
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+    }
+
+    static long key(int val1, int val2) {
+        int lo = Math.min(val1, val2);
+        int hi = Math.max(val1, val2);
+        return (long) lo << 32 | (hi & 0xFFFFFFFFL);
+    }
+
+    // the cached result for the pair, or null if there is none
+    @SuppressWarnings("unchecked")
+    public synchronized V get(int val1, int val2) {
+        int t = find(key(val1, val2));
+        if (table[t] == EMPTY) {
+            misses++;
+            return null;
+        }
+
+        hits++;
+        int slot = slotOf[t];
+        moveToFront(slot);
+        return (V) values[slot];
+    }
+
+    // Caches value for the pair, evicting the least recently used entry if the cache is full.
+    // Null values are not cached.
+    public synchronized void put(int val1, int val2, V value) {
+        if (value == null) return;
+
+        long key = key(val1, val2);
+        int t = find(key);
+        if (table[t] != EMPTY) {
+            values[slotOf[t]] = value;
+            moveToFront(slotOf[t]);
+            return;
+        }
+
+        int slot;
+        if (size < capacity) {
+            slot = size++;
+        } else {
+            slot = tail;
+            unlink(slot);
+            remove(keys[slot]);
+            evictions++;
+            t = find(key);
+        }
+
+        keys[slot] = key;
+        values[slot] = value;
+        table[t] = key;
+        slotOf[t] = slot;
+        linkFront(slot);
+    }
+
+    // drops every entry; the counters are kept
+    public synchronized void clear() {
+        if (size == 0) return;
+
+        Arrays.fill(table, EMPTY);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        head = -1;
+        tail = -1;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    // table slot holding key, or the free slot where it would go
+    private int find(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        int t = (int) (h ^ (h >>> 32)) & mask;
+        while (table[t] != EMPTY && table[t] != key) {
+            t = (t + 1) & mask;
+        }
+        return t;
+    }
+
+    // linear-probing delete: shift later entries of the same run back into the gap
+    private void remove(long key) {
+        int gap = find(key);
+        table[gap] = EMPTY;
+
+        for (int t = (gap + 1) & mask; table[t] != EMPTY; t = (t + 1) & mask) {
+            long h = table[t] * 0x9E3779B97F4A7C15L;
+            int home = (int) (h ^ (h >>> 32)) & mask;
+
+            // the entry at t may move to the gap unless its home lies in (gap, t]
+            if (((t - home) & mask) >= ((t - gap) & mask)) {
+                table[gap] = table[t];
+                slotOf[gap] = slotOf[t];
+                table[t] = EMPTY;
+                gap = t;
+            }
+        }
+    }
+
+    private void moveToFront(int slot) {
+        if (slot == head) return;
+        unlink(slot);
+        linkFront(slot);
+    }
+
+    private void linkFront(int slot) {
+        prev[slot] = -1;
+        next[slot] = head;
+        if (head != -1) prev[head] = slot;
+        head = slot;
+        if (tail == -1) tail = slot;
+    }
+
+    private void unlink(int slot) {
+        if (prev[slot] != -1) next[prev[slot]] = next[slot];
+        else head = next[slot];
+        if (next[slot] != -1) prev[next[slot]] = prev[slot];
+        else tail = prev[slot];
+    }
+}
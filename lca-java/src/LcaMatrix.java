@@ -0,0 +1,59 @@
+import java.util.Arrays;
+
+// All-pairs LCA results of a DAG with n nodes, as one compressed row per id1: row id1 keeps n + 1
+// offsets into a flat array of LCA ids, so a pair with a single LCA costs one int plus its offset.
+//
+// Filled as an LcaSink; each row must arrive complete and in order, which DagBulkLca guarantees.
+// Rows are written by one thread each and read only after the bulk computation has returned.
+public class LcaMatrix implements LcaSink {
+
+    private final int n;
+    private final int[][] offsets;
+    private final int[][] ids;
+
+    public LcaMatrix(int n) {
+        this.n = n;
+        this.offsets = new int[n][];
+        this.ids = new int[n][];
+    }
+
+    @Override
+    public void accept(int id1, int id2, int[] lcas, int count) {
+        if (id2 == 0) {
+            offsets[id1] = new int[n + 1];
+            ids[id1] = new int[Math.max(16, n)];
+        }
+
+        int[] rowOffsets = offsets[id1];
+        int[] rowIds = ids[id1];
+        int start = rowOffsets[id2];
+        if (start + count > rowIds.length) {
+            rowIds = Arrays.copyOf(rowIds, Math.max(start + count, rowIds.length * 2));
+            ids[id1] = rowIds;
+        }
+        System.arraycopy(lcas, 0, rowIds, start, count);
+        rowOffsets[id2 + 1] = start + count;
+
+        if (id2 == n - 1) {
+            ids[id1] = Arrays.copyOf(rowIds, start + count);
+        }
+    }
+
+    public int size() {
+        return n;
+    }
+
+    // number of LCAs of the pair
+    public int count(int id1, int id2) {
+        return offsets[id1][id2 + 1] - offsets[id1][id2];
+    }
+
+    // the smallest LCA id of the pair, or -1 if it has none
+    public int first(int id1, int id2) {
+        return count(id1, id2) == 0 ? -1 : ids[id1][offsets[id1][id2]];
+    }
+
+    public int[] get(int id1, int id2) {
+        return Arrays.copyOfRange(ids[id1], offsets[id1][id2], offsets[id1][id2 + 1]);
+    }
+}
@@ -0,0 +1,277 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Query metrics for BinaryTree and DirectedAcyclicGraph, attached with setMetrics. A query then
+// records its latency, the nodes it visited and the edges it followed, and cache lookups and
+// index builds are counted as well.
+//
+// Latencies go into a log-linear histogram in the style of HdrHistogram: values below 8 ns get a
+// bucket each, and every power of two above that is split into 8 buckets, so a bucket is at most
+// 1/8 of its values wide and 496 buckets cover every long. Recording is a few atomic increments
+// on fixed arrays and LongAdders: no locks and no allocation, safe from any number of threads.
+//
+// Read the numbers with snapshot(), or through JMX once register() has published the MXBean.
+// A snapshot taken while queries run may be off by the queries in flight.
+public class LcaMetrics implements LcaMetricsMXBean {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray latencyCounts = new AtomicLongArray(BUCKETS);
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder latencyTotal = new LongAdder();
+    private final LongAccumulator latencyMax = new LongAccumulator(Math::max, 0);
+    private final LongAdder nodesVisited = new LongAdder();
+    private final LongAdder edgesTraversed = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+    private final LongAdder indexBuilds = new LongAdder();
+    private final LongAdder indexBuildNanos = new LongAdder();
+
+    /* Recording --------------- */
+
+    public void recordQuery(long latencyNanos, int nodes, int edges) {
+        long latency = Math.max(0, latencyNanos);
+        latencyCounts.incrementAndGet(bucketOf(latency));
+        queries.increment();
+        latencyTotal.add(latency);
+        latencyMax.accumulate(latency);
+        nodesVisited.add(nodes);
+        edgesTraversed.add(edges);
+    }
+
+    public void recordCacheHit() {
+        cacheHits.increment();
+    }
+
+    public void recordCacheMiss() {
+        cacheMisses.increment();
+    }
+
+    public void recordIndexBuild(long nanos) {
+        indexBuilds.increment();
+        indexBuildNanos.add(nanos);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // largest value that falls into bucket
+    static long bucketUpperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + ((1L << shift) - 1);
+    }
+
+    /* Reading ----------------- */
+
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = latencyCounts.get(i);
+        }
+        return new Snapshot(counts, queries.sum(), latencyTotal.sum(), latencyMax.get(), nodesVisited.sum(),
+                edgesTraversed.sum(), cacheHits.sum(), cacheMisses.sum(), indexBuilds.sum(), indexBuildNanos.sum());
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            latencyCounts.set(i, 0);
+        }
+        queries.reset();
+        latencyTotal.reset();
+        latencyMax.reset();
+        nodesVisited.reset();
+        edgesTraversed.reset();
+        cacheHits.reset();
+        cacheMisses.reset();
+        indexBuilds.reset();
+        indexBuildNanos.reset();
+    }
+
+    // Publishes these metrics on the platform MBean server under name, e.g.
+    // "lca:type=LcaMetrics,name=routes". Throws IllegalArgumentException if the name is malformed
+    // or already taken.
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Cannot register LCA metrics as " + name, e);
+        }
+    }
+
+    public void unregister(ObjectName name) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (JMException e) {
+            throw new IllegalArgumentException("Cannot unregister LCA metrics " + name, e);
+        }
+    }
+
+    // the MXBean getters read the live counters
+
+    @Override
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    @Override
+    public long getMeanLatencyNanos() {
+        return snapshot().meanLatencyNanos();
+    }
+
+    @Override
+    public long getMaxLatencyNanos() {
+        return latencyMax.get();
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+        return snapshot().latencyPercentileNanos(50);
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+        return snapshot().latencyPercentileNanos(99);
+    }
+
+    @Override
+    public long getLatencyP999Nanos() {
+        return snapshot().latencyPercentileNanos(99.9);
+    }
+
+    @Override
+    public long getNodesVisited() {
+        return nodesVisited.sum();
+    }
+
+    @Override
+    public long getEdgesTraversed() {
+        return edgesTraversed.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public long getIndexBuilds() {
+        return indexBuilds.sum();
+    }
+
+    @Override
+    public long getIndexBuildNanos() {
+        return indexBuildNanos.sum();
+    }
+
+    // Immutable copy of the metrics at one point in time
+    public static final class Snapshot {
+
+        private final long[] latencyCounts;
+        private final long queries;
+        private final long latencyTotal;
+        private final long latencyMax;
+        private final long nodesVisited;
+        private final long edgesTraversed;
+        private final long cacheHits;
+        private final long cacheMisses;
+        private final long indexBuilds;
+        private final long indexBuildNanos;
+
+        private Snapshot(long[] latencyCounts, long queries, long latencyTotal, long latencyMax, long nodesVisited,
+                         long edgesTraversed, long cacheHits, long cacheMisses, long indexBuilds, long indexBuildNanos) {
+            this.latencyCounts = latencyCounts;
+            this.queries = queries;
+            this.latencyTotal = latencyTotal;
+            this.latencyMax = latencyMax;
+            this.nodesVisited = nodesVisited;
+            this.edgesTraversed = edgesTraversed;
+            this.cacheHits = cacheHits;
+            this.cacheMisses = cacheMisses;
+            this.indexBuilds = indexBuilds;
+            this.indexBuildNanos = indexBuildNanos;
+        }
+
+        public long queryCount() {
+            return queries;
+        }
+
+        public long meanLatencyNanos() {
+            return queries == 0 ? 0 : latencyTotal / queries;
+        }
+
+        public long maxLatencyNanos() {
+            return latencyMax;
+        }
+
+        // Latency that percentile percent of the queries did not exceed, to within its bucket;
+        // 0 if nothing has been recorded
+        public long latencyPercentileNanos(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Percentile out of range: " + percentile);
+            }
+            long total = 0;
+            for (long count : latencyCounts) {
+                total += count;
+            }
+            if (total == 0) return 0;
+
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+            long seen = 0;
+            for (int bucket = 0; bucket < latencyCounts.length; bucket++) {
+                seen += latencyCounts[bucket];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(bucket), latencyMax);
+                }
+            }
+            return latencyMax;
+        }
+
+        public long nodesVisited() {
+            return nodesVisited;
+        }
+
+        public long edgesTraversed() {
+            return edgesTraversed;
+        }
+
+        public long cacheHits() {
+            return cacheHits;
+        }
+
+        public long cacheMisses() {
+            return cacheMisses;
+        }
+
+        public long indexBuilds() {
+            return indexBuilds;
+        }
+
+        public long indexBuildNanos() {
+            return indexBuildNanos;
+        }
+    }
+}
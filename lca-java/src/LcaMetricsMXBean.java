@@ -0,0 +1,30 @@
+// JMX view of an LcaMetrics, registered with LcaMetrics.register. Latencies are in nanoseconds;
+// percentiles are the upper bounds of their histogram buckets, so they are accurate to 1/8.
+public interface LcaMetricsMXBean {
+
+    long getQueryCount();
+
+    long getMeanLatencyNanos();
+
+    long getMaxLatencyNanos();
+
+    long getLatencyP50Nanos();
+
+    long getLatencyP99Nanos();
+
+    long getLatencyP999Nanos();
+
+    long getNodesVisited();
+
+    long getEdgesTraversed();
+
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getIndexBuilds();
+
+    long getIndexBuildNanos();
+
+    void reset();
+}
@@ -0,0 +1,10 @@
+// Receives the results of a bulk LCA computation (see DagBulkLca) one pair at a time.
+//
+// lcas[0 .. count) holds the ids of the LCAs of id1 and id2 in ascending order, as
+// DagLcaEngine.lowestCommonAncestorIds would return them. The array is reused once accept returns.
+// The pairs of one id1 arrive from a single thread: in ascending id2 order from allPairs, in
+// topological order of id2 from oneToMany. Different id1 rows may be delivered concurrently.
+public interface LcaSink {
+
+    void accept(int id1, int id2, int[] lcas, int count);
+}
@@ -0,0 +1,466 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// Binary snapshot of a BinaryTree or a DAG, optionally with its LCA index, so a restart can load
+// the structure instead of rebuilding it node by node and can skip the index build.
+//
+// The structure is varint encoded. A tree is its preorder: one varint per node holding the
+// zigzagged value and two bits saying which children follow. An implicit tree is its values in
+// level order. A DAG is its values followed by each node's child count and children, every child
+// stored as a zigzagged offset from its parent's id, which keeps the common short edges to a byte
+// or two. Indexes are stored raw, 8-byte aligned after the structure: the Euler tour and sparse
+// table of an EulerTourIndex, or the rows of a TransitiveClosureIndex.
+//
+// Reads and writes go through a direct buffer, and raw sections move between it and the arrays
+// with bulk IntBuffer/LongBuffer copies rather than value by value. The arrays still have to be
+// filled once, as heap arrays cannot alias a file; for a DAG that should stay off the heap
+// entirely, use MappedDag.
+public final class LcaSnapshot {
+
+    private static final int MAGIC = 0x4C434153;   // "LCAS"
+    private static final int VERSION = 1;
+
+    private static final int KIND_TREE = 1;
+    private static final int KIND_IMPLICIT_TREE = 2;
+    private static final int KIND_DAG = 3;
+
+    private static final int FLAG_INDEX = 1;
+
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private BinaryTree tree;
+    private EulerTourIndex eulerTourIndex;
+    private CompactDag compactDag;
+    private TransitiveClosureIndex closure;
+    private DirectedAcyclicGraph graph;    // built from compactDag on first use
+
+    private LcaSnapshot() {
+    }
+
+    /* Saving ------------------ */
+
+    public static void save(BinaryTree tree, Path file) throws IOException {
+        save(tree, null, file);
+    }
+
+    // Saves tree together with an index built over its current shape
+    public static void save(BinaryTree tree, EulerTourIndex index, Path file) throws IOException {
+        int[] heapVals = index == null ? tree.implicitValues() : null;
+        FlatTree flat = null;
+        if (heapVals == null) {
+            BinaryTreeNode root = tree.root();
+            flat = index != null ? index.tree : new FlatTree(root);
+            if (flat.size() != FlatTree.size(root) || (root != null && flat.nodes[0] != root)) {
+                throw new IllegalArgumentException("Index does not match the current shape of the tree");
+            }
+        }
+
+        try (Output out = new Output(file)) {
+            if (heapVals != null) {
+                out.header(KIND_IMPLICIT_TREE, 0);
+                out.writeVarLong(heapVals.length);
+                for (int val : heapVals) {
+                    out.writeVarLong(zigzag(val));
+                }
+                return;
+            }
+
+            out.header(KIND_TREE, index != null ? FLAG_INDEX : 0);
+            out.writeVarLong(flat.size());
+            for (int id = 0; id < flat.size(); id++) {
+                int children = (flat.lChild[id] != -1 ? 1 : 0) | (flat.rChild[id] != -1 ? 2 : 0);
+                out.writeVarLong(zigzag(flat.vals[id]) << 2 | children);
+            }
+
+            if (index != null) {
+                out.align8();
+                out.writeInt(index.euler.length);
+                out.writeInt(index.sparse.length);
+                out.writeInts(index.euler);
+                for (int[] level : index.sparse) {
+                    out.writeInts(level);
+                }
+            }
+        }
+    }
+
+    public static void save(DirectedAcyclicGraph graph, Path file) throws IOException {
+        save(graph.freeze(), null, file);
+    }
+
+    public static void save(CompactDag graph, Path file) throws IOException {
+        save(graph, null, file);
+    }
+
+    // Saves graph together with its transitive closure
+    public static void save(CompactDag graph, TransitiveClosureIndex closure, Path file) throws IOException {
+        int n = graph.size();
+        if (closure != null && closure.size() != n) {
+            throw new IllegalArgumentException("Closure covers " + closure.size() + " nodes, graph has " + n);
+        }
+
+        try (Output out = new Output(file)) {
+            out.header(KIND_DAG, closure != null ? FLAG_INDEX : 0);
+            out.writeVarLong(n);
+            for (int id = 0; id < n; id++) {
+                out.writeVarLong(zigzag(graph.vals[id]));
+            }
+            for (int id = 0; id < n; id++) {
+                out.writeVarLong(graph.childOffsets[id + 1] - graph.childOffsets[id]);
+                for (int j = graph.childOffsets[id]; j < graph.childOffsets[id + 1]; j++) {
+                    out.writeVarLong(zigzag(graph.childTargets[j] - id));
+                }
+            }
+
+            if (closure != null) {
+                out.align8();
+                for (int id = 0; id < n; id++) {
+                    out.writeLongs(closure.descendantBits(id));
+                }
+            }
+        }
+    }
+
+    /* Loading ----------------- */
+
+    public static LcaSnapshot load(Path file) throws IOException {
+        LcaSnapshot snapshot = new LcaSnapshot();
+
+        try (Input in = new Input(file)) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not an LCA snapshot: " + file);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            int kind = in.readInt();
+            boolean hasIndex = (in.readInt() & FLAG_INDEX) != 0;
+
+            if (kind == KIND_TREE) {
+                snapshot.loadTree(in, hasIndex);
+            } else if (kind == KIND_IMPLICIT_TREE) {
+                int[] vals = new int[in.readCount()];
+                for (int i = 0; i < vals.length; i++) {
+                    vals[i] = unzigzag(in.readVarLong());
+                }
+                snapshot.tree = BinaryTree.implicit(vals);
+            } else if (kind == KIND_DAG) {
+                snapshot.loadDag(in, hasIndex);
+            } else {
+                throw new IOException("Unknown snapshot kind " + kind);
+            }
+        }
+        return snapshot;
+    }
+
+    // the loaded tree, or null if this is a DAG snapshot
+    public BinaryTree tree() {
+        return tree;
+    }
+
+    // the loaded tree's index, or null if none was saved
+    public EulerTourIndex eulerTourIndex() {
+        return eulerTourIndex;
+    }
+
+    // the loaded DAG, or null if this is a tree snapshot
+    public CompactDag compactDag() {
+        return compactDag;
+    }
+
+    // the loaded DAG as Node objects, created on first call
+    public DirectedAcyclicGraph graph() {
+        if (graph == null && compactDag != null) {
+            graph = compactDag.toGraph();
+        }
+        return graph;
+    }
+
+    // the loaded DAG's closure, or null if none was saved
+    public TransitiveClosureIndex reachabilityIndex() {
+        return closure;
+    }
+
+    /* ------------------------- */
+
+    private void loadTree(Input in, boolean hasIndex) throws IOException {
+        int n = in.readCount();
+        BinaryTreeNode root = null;
+
+        // nodes still waiting for children, with the child bits not yet consumed
+        BinaryTreeNode[] stack = new BinaryTreeNode[Math.max(1, n)];
+        int[] pending = new int[Math.max(1, n)];
+        int top = 0;
+
+        for (int i = 0; i < n; i++) {
+            long entry = in.readVarLong();
+            int val = unzigzag(entry >>> 2);
+            int children = (int) entry & 3;
+
+            BinaryTreeNode node;
+            if (top == 0) {
+                if (root != null) throw new IOException("Snapshot holds more than one tree");
+                root = new BinaryTreeNode(val);
+                node = root;
+            } else {
+                BinaryTreeNode parent = stack[top - 1];
+                if ((pending[top - 1] & 1) != 0) {
+                    parent.setLChild(val);
+                    node = parent.getlChild();
+                    pending[top - 1] &= ~1;
+                } else {
+                    parent.setRChild(val);
+                    node = parent.getrChild();
+                    pending[top - 1] = 0;
+                }
+                if (pending[top - 1] == 0) top--;
+            }
+
+            if (children != 0) {
+                stack[top] = node;
+                pending[top] = children;
+                top++;
+            }
+        }
+        if (top != 0) throw new EOFException("Snapshot tree is missing nodes");
+
+        tree = new BinaryTree(root);
+
+        if (hasIndex) {
+            in.align8();
+            int[] euler = new int[in.readInt()];
+            int[][] sparse = new int[in.readInt()][];
+            in.readInts(euler);
+            for (int k = 0; k < sparse.length; k++) {
+                sparse[k] = new int[euler.length - (1 << k) + 1];
+                in.readInts(sparse[k]);
+            }
+            eulerTourIndex = new EulerTourIndex(new FlatTree(root), euler, sparse);
+        }
+    }
+
+    private void loadDag(Input in, boolean hasIndex) throws IOException {
+        int n = in.readCount();
+        int[] vals = new int[n];
+        for (int id = 0; id < n; id++) {
+            vals[id] = unzigzag(in.readVarLong());
+        }
+
+        int[] childOffsets = new int[n + 1];
+        int[] childTargets = new int[Math.max(16, n)];
+        for (int id = 0; id < n; id++) {
+            int degree = in.readCount();
+            if ((long) childOffsets[id] + degree > Integer.MAX_VALUE - 1) {
+                throw new IOException("Bad edge count in snapshot");
+            }
+            int end = childOffsets[id] + degree;
+            if (end > childTargets.length) {
+                childTargets = Arrays.copyOf(childTargets, Math.max(end, childTargets.length * 2));
+            }
+            for (int j = childOffsets[id]; j < end; j++) {
+                // ids index the arrays of the CompactDag, so one out of range would only fail later
+                long child = (long) id + unzigzag(in.readVarLong());
+                if (child < 0 || child >= n) {
+                    throw new IOException("Bad child id " + child + " of node " + id + " in snapshot");
+                }
+                childTargets[j] = (int) child;
+            }
+            childOffsets[id + 1] = end;
+        }
+        compactDag = new CompactDag(vals, childOffsets, Arrays.copyOf(childTargets, childOffsets[n]));
+
+        if (hasIndex) {
+            in.align8();
+            long[][] rows = new long[n][];
+            for (int id = 0; id < n; id++) {
+                rows[id] = new long[(n + 63) >>> 6];
+                in.readLongs(rows[id]);
+            }
+            closure = new TransitiveClosureIndex(rows);
+        }
+    }
+
+    private static long zigzag(int value) {
+        return ((value << 1) ^ (value >> 31)) & 0xFFFFFFFFL;
+    }
+
+    private static int unzigzag(long encoded) {
+        return (int) (encoded >>> 1) ^ -(int) (encoded & 1);
+    }
+
+    // buffered little-endian writer that tracks its file position
+    private static final class Output implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long flushed;
+
+        Output(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        }
+
+        void header(int kind, int flags) throws IOException {
+            writeInt(MAGIC);
+            writeInt(VERSION);
+            writeInt(kind);
+            writeInt(flags);
+        }
+
+        void writeInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void writeVarLong(long value) throws IOException {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        void writeInts(int[] values) throws IOException {
+            int off = 0;
+            while (off < values.length) {
+                ensure(4);
+                int count = Math.min(buffer.remaining() / 4, values.length - off);
+                buffer.asIntBuffer().put(values, off, count);
+                buffer.position(buffer.position() + 4 * count);
+                off += count;
+            }
+        }
+
+        void writeLongs(long[] values) throws IOException {
+            int off = 0;
+            while (off < values.length) {
+                ensure(8);
+                int count = Math.min(buffer.remaining() / 8, values.length - off);
+                buffer.asLongBuffer().put(values, off, count);
+                buffer.position(buffer.position() + 8 * count);
+                off += count;
+            }
+        }
+
+        void align8() throws IOException {
+            ensure(8);
+            while (((flushed + buffer.position()) & 7) != 0) {
+                buffer.put((byte) 0);
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) flush();
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                flushed += channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    // buffered little-endian reader; fails with EOFException on a truncated file
+    private static final class Input implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long consumed;    // bytes before the start of buffer
+
+        Input(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            buffer.limit(0);
+        }
+
+        int readInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                require(1);
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Malformed varint in snapshot");
+        }
+
+        // a non-negative count that fits in an int
+        int readCount() throws IOException {
+            long count = readVarLong();
+            if (count < 0 || count > Integer.MAX_VALUE - 1) {
+                throw new IOException("Bad count " + count + " in snapshot");
+            }
+            return (int) count;
+        }
+
+        void readInts(int[] values) throws IOException {
+            int off = 0;
+            while (off < values.length) {
+                require(4);
+                int count = Math.min(buffer.remaining() / 4, values.length - off);
+                buffer.asIntBuffer().get(values, off, count);
+                buffer.position(buffer.position() + 4 * count);
+                off += count;
+            }
+        }
+
+        void readLongs(long[] values) throws IOException {
+            int off = 0;
+            while (off < values.length) {
+                require(8);
+                int count = Math.min(buffer.remaining() / 8, values.length - off);
+                buffer.asLongBuffer().get(values, off, count);
+                buffer.position(buffer.position() + 8 * count);
+                off += count;
+            }
+        }
+
+        void align8() throws IOException {
+            while (((consumed + buffer.position()) & 7) != 0) {
+                require(1);
+                buffer.get();
+            }
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) return;
+
+            consumed += buffer.position();
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Snapshot is truncated");
+                }
+            }
+            buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
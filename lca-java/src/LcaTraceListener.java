@@ -0,0 +1,38 @@
+import java.util.Collection;
+import java.util.List;
+
+// Observer for the steps of the LCA traversals. BinaryTree and DirectedAcyclicGraph only build
+// the arguments and call a listener once one has been set with setTraceListener; with none set
+// the traversals test a null field and do no other work, and no console I/O.
+//
+// Every method has an empty default, so a listener overrides only the events it cares about.
+// ConsoleTraceListener prints the same trace the traversals used to print themselves.
+public interface LcaTraceListener {
+
+    // BinaryTree.getLowestCommonAncestor found these root-to-node paths; a path is empty if the
+    // value is not in the tree
+    default void treePaths(int val1, List<BinaryTreeNode> path1, int val2, List<BinaryTreeNode> path2) {
+    }
+
+    // DirectedAcyclicGraph.bfsForTarget starts a search from start for target
+    default void searchStarted(Node start, Node target) {
+    }
+
+    // the search takes the head of queue as its next node
+    default void searchQueue(Collection<Node> queue) {
+    }
+
+    default void searchVisited(Node node) {
+    }
+
+    default void searchEnqueued(Node node) {
+    }
+
+    // the current node's children have all been queued
+    default void searchStepDone() {
+    }
+
+    // getBlueNodes or getRedNodes collected these nodes of the given colour
+    default void colouredNodes(Node.Color colour, List<Node> nodes) {
+    }
+}
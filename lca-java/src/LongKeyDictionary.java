@@ -0,0 +1,65 @@
+import java.util.Arrays;
+
+// KeyDictionary for long keys such as content hashes: ids in a LongIntHashMap, keys by id in a
+// long[]
+public class LongKeyDictionary implements KeyDictionary<Long> {
+
+    private final LongIntHashMap idOfKey;
+    private long[] keys;
+    private int size;
+
+    public LongKeyDictionary() {
+        this(16);
+    }
+
+    public LongKeyDictionary(int expectedSize) {
+        idOfKey = new LongIntHashMap(expectedSize);
+        keys = new long[Math.max(16, expectedSize)];
+    }
+
+    // add(Long) without boxing
+    public int add(long key) {
+        int id = idOfKey.get(key);
+        if (id != -1) return id;
+
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[size] = key;
+        idOfKey.put(key, size);
+        return size++;
+    }
+
+    // idOf(Long) without boxing
+    public int idOf(long key) {
+        return idOfKey.get(key);
+    }
+
+    // keyOf without boxing
+    public long longKeyOf(int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("No key with id " + id);
+        }
+        return keys[id];
+    }
+
+    @Override
+    public int add(Long key) {
+        return add(key.longValue());
+    }
+
+    @Override
+    public int idOf(Long key) {
+        return idOf(key.longValue());
+    }
+
+    @Override
+    public Long keyOf(int id) {
+        return longKeyOf(id);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
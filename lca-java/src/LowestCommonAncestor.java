@@ -4,6 +4,7 @@ public class LowestCommonAncestor {
     public static void main(String[] args) {
 
         BinaryTree testTree = generateTestTree();
+        testTree.setTraceListener(new ConsoleTraceListener());
         //                     __[1]__
         //                    /       \
         //                   /         \
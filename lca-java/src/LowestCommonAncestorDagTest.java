@@ -5,7 +5,15 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 
 @RunWith(JUnit4.class)
 public class LowestCommonAncestorDagTest {
@@ -311,6 +319,11 @@ public class LowestCommonAncestorDagTest {
 
         assertTrue("Testing that the LCAs of n4 and n5 are [n3, n1]", actualLCAs.containsAll(expectedLCAs)
                 && actualLCAs.size() == expectedLCAs.size());
+
+        // ties come back in the order of getNodes()
+        ArrayList<Node> inGraphOrder = new ArrayList<>(testDag.getNodes());
+        inGraphOrder.retainAll(expectedLCAs);
+        assertEquals("Testing that the LCAs of n4 and n5 are in graph order", inGraphOrder, actualLCAs);
     }
 
     @Test
@@ -363,6 +376,1070 @@ public class LowestCommonAncestorDagTest {
 
         assertTrue("Testing that the shortest path from n3 to n1 is null",
                 actualShortestPath == null);
+
+        // an edge added after a search shortens the next one
+        Node n2 = testDag.getNodeWithValue(2);
+        Node n4 = testDag.getNodeWithValue(4);
+        Node n5 = testDag.getNodeWithValue(5);
+        n2.addChild(n5);
+        assertEquals("Testing that the shortest path from n2 to n5 uses the new edge",
+                new ArrayList<>(Arrays.asList(n2, n5)), testDag.shortestPath(n2, n5));
+
+        // so does one added to a child list directly, with no edgesChanged call
+        Node n3 = testDag.getNodeWithValue(3);
+        assertTrue("Testing that there is no path from n2 to n3 yet", testDag.shortestPath(n2, n3) == null);
+        n2.getChildren().add(n3);
+        assertEquals("Testing that the shortest path from n2 to n3 uses the edge added to the list",
+                new ArrayList<>(Arrays.asList(n2, n3)), testDag.shortestPath(n2, n3));
+
+        // a start outside the graph is searched through its children
+        Node n30 = new Node(30, new ArrayList<>(Arrays.asList(n4)), null);
+        assertEquals("Testing that the shortest path from n30 to n5 is n30 -> n4 -> n5",
+                new ArrayList<>(Arrays.asList(n30, n4, n5)), testDag.shortestPath(n30, n5));
+    }
+
+    @Test
+    public void testBatchLCAs() {
+        for (DirectedAcyclicGraph testDag : Arrays.asList(generateTestGraph1(), generateTestGraph2())) {
+            ArrayList<Node> nodes = testDag.getNodes();
+            int n = nodes.size();
+
+            int[] vals1 = new int[n * n];
+            int[] vals2 = new int[n * n];
+            for (int i = 0; i < vals1.length; i++) {
+                vals1[i] = nodes.get(i / n).getVal();
+                vals2[i] = nodes.get(i % n).getVal();
+            }
+
+            int[][] batchLCAs = testDag.getLCAs(vals1, vals2);
+
+            for (int i = 0; i < vals1.length; i++) {
+                ArrayList<Node> expectedLCAs = testDag.getLCAs(testDag.getNodeWithValue(vals1[i]),
+                        testDag.getNodeWithValue(vals2[i]));
+                testDag.resetColors();
+
+                HashSet<Integer> expected = new HashSet<>();
+                for (Node lca : expectedLCAs) expected.add(lca.getVal());
+                HashSet<Integer> actual = new HashSet<>();
+                for (int lca : batchLCAs[i]) actual.add(lca);
+
+                assertEquals("Testing the batch LCAs of n" + vals1[i] + " and n" + vals2[i] + " match getLCAs",
+                        expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testLCAsMatchColouring() {
+        // getLCAs no longer colours the graph; check it still picks the same nodes as the
+        // colouring approach (red nodes with the smallest max shortest path to the targets)
+        for (DirectedAcyclicGraph testDag : Arrays.asList(generateTestGraph1(), generateTestGraph2())) {
+            DagLcaEngine engine = testDag.buildLcaEngine();
+
+            for (Node target1 : testDag.getNodes()) {
+                for (Node target2 : testDag.getNodes()) {
+                    testDag.colourAncestorsBlue(target1);
+                    testDag.colourAncestorsRed(target2);
+
+                    HashSet<Node> expectedLCAs = new HashSet<>();
+                    int minPathLength = Integer.MAX_VALUE;
+                    for (Node redNode : testDag.getRedNodes()) {
+                        int distance = Math.max(testDag.shortestPath(redNode, target1).size(),
+                                testDag.shortestPath(redNode, target2).size());
+                        if (distance < minPathLength) {
+                            minPathLength = distance;
+                            expectedLCAs.clear();
+                        }
+                        if (distance == minPathLength) expectedLCAs.add(redNode);
+                    }
+                    testDag.resetColors();
+
+                    assertEquals("Testing the LCAs of " + target1 + " and " + target2 + " match the colouring",
+                            expectedLCAs, new HashSet<>(testDag.getLCAs(target1, target2)));
+                    assertEquals("Testing the engine LCAs of " + target1 + " and " + target2 + " match the colouring",
+                            expectedLCAs, new HashSet<>(engine.getLCAs(target1, target2)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompactDag() {
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+        CompactDag compactDag = testDag.freeze();
+
+        assertEquals("Testing the compact graph has every node", 13, compactDag.size());
+        assertEquals("Testing the compact graph has every edge", 12, compactDag.edgeCount());
+        assertTrue("Testing the children of n10 keep their order",
+                Arrays.equals(new int[]{compactDag.idOf(9), compactDag.idOf(13), compactDag.idOf(11)},
+                        compactDag.children(compactDag.idOf(10))));
+        assertTrue("Testing the parents of n10 are derived from the child lists",
+                Arrays.equals(new int[]{compactDag.idOf(7)}, compactDag.parents(compactDag.idOf(10))));
+
+        assertTrue("Testing compact BFS traverses the graph in the expected order given start node 1",
+                Arrays.equals(new int[]{1, 2, 3, 4, 5, 6, 7, 8, 10, 9, 13, 11, 12},
+                        compactDag.bfs(compactDag.idOf(1))));
+
+        int[] path = compactDag.shortestPath(compactDag.idOf(1), compactDag.idOf(8));
+        int[] pathVals = new int[path.length];
+        for (int i = 0; i < path.length; i++) pathVals[i] = compactDag.value(path[i]);
+        assertTrue("Testing that the compact shortest path from n1 to n8 is n1 -> n3 -> n5 -> n8",
+                Arrays.equals(new int[]{1, 3, 5, 8}, pathVals));
+        assertEquals("Testing that the compact shortest path from n8 to n1 is null",
+                null, compactDag.shortestPath(compactDag.idOf(8), compactDag.idOf(1)));
+
+        for (DirectedAcyclicGraph dag : Arrays.asList(generateTestGraph1(), generateTestGraph2())) {
+            compactDag = dag.freeze();
+            for (Node target1 : dag.getNodes()) {
+                for (Node target2 : dag.getNodes()) {
+                    HashSet<Integer> expected = new HashSet<>();
+                    for (Node lca : dag.getLCAs(target1, target2)) expected.add(lca.getVal());
+                    HashSet<Integer> actual = new HashSet<>();
+                    for (int id : compactDag.getLCAs(compactDag.idOf(target1.getVal()), compactDag.idOf(target2.getVal()))) {
+                        actual.add(compactDag.value(id));
+                    }
+
+                    assertEquals("Testing the compact LCAs of " + target1 + " and " + target2 + " match getLCAs",
+                            expected, actual);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentLCAs() throws InterruptedException {
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+        DagLcaEngine engine = testDag.buildLcaEngine();
+        ArrayList<Node> nodes = testDag.getNodes();
+
+        HashMap<String, ArrayList<Node>> expectedLCAs = new HashMap<>();
+        for (Node target1 : nodes) {
+            for (Node target2 : nodes) {
+                expectedLCAs.put(target1 + "," + target2, engine.getLCAs(target1, target2));
+            }
+        }
+
+        // several threads share one engine with no locking and no resetColors between queries
+        ArrayList<String> failures = new ArrayList<>();
+        ArrayList<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int round = 0; round < 200; round++) {
+                    for (Node target1 : nodes) {
+                        for (Node target2 : nodes) {
+                            ArrayList<Node> actual = engine.getLCAs(target1, target2);
+                            if (!actual.equals(expectedLCAs.get(target1 + "," + target2))) {
+                                synchronized (failures) {
+                                    failures.add(target1 + "," + target2);
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue("Testing concurrent queries on a shared engine agree with single-threaded ones: " + failures,
+                failures.isEmpty());
+    }
+
+    @Test
+    public void testReachabilityIndex() {
+        for (DirectedAcyclicGraph testDag : Arrays.asList(generateTestGraph1(), generateTestGraph2())) {
+            CompactDag compactDag = testDag.freeze();
+            ArrayList<ReachabilityIndex> indexes = new ArrayList<>(Arrays.asList(
+                    new TransitiveClosureIndex(compactDag),
+                    new IntervalReachabilityIndex(compactDag, 1),
+                    new IntervalReachabilityIndex(compactDag, 3, 7L)));
+
+            for (Node start : testDag.getNodes()) {
+                for (Node target : testDag.getNodes()) {
+                    boolean expected = testDag.bfsForTarget(start, target);
+                    for (ReachabilityIndex index : indexes) {
+                        assertEquals("Testing " + index.getClass().getSimpleName() + " agrees with bfsForTarget for "
+                                        + start + " and " + target, expected,
+                                index.isAncestor(compactDag.idOf(start.getVal()), compactDag.idOf(target.getVal())));
+                    }
+                }
+            }
+        }
+
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+        assertTrue("Testing a generous budget picks the transitive closure",
+                testDag.buildReachabilityIndex(1 << 20) instanceof TransitiveClosureIndex);
+        assertTrue("Testing a tight budget falls back to interval labels",
+                testDag.buildReachabilityIndex(64) instanceof IntervalReachabilityIndex);
+
+        assertTrue("Confirm 10 is an ancestor of 12 using the index",
+                testDag.bfsForTarget(testDag.getNodeWithValue(10), testDag.getNodeWithValue(12)));
+        assertTrue("Confirm 8 is not an ancestor of 10 using the index",
+                !testDag.bfsForTarget(testDag.getNodeWithValue(8), testDag.getNodeWithValue(10)));
+    }
+
+    @Test
+    public void testGetNodeWithValueAfterAddChild() {
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+
+        // n8 gains a child that is not in the graph yet, which itself has a child
+        Node n14 = new Node(14, null, null);
+        Node n15 = new Node(15, null, null);
+        n14.addChild(n15);
+        n15.addParent(n14);
+
+        Node n8 = testDag.getNodeWithValue(8);
+        n8.addChild(n14);
+        n14.addParent(n8);
+
+        // a child outside the node list stays outside the graph
+        assertEquals("Testing a child outside the graph is not looked up", null, testDag.getNodeWithValue(14));
+        assertEquals("Testing addChild leaves the node list alone", 13, testDag.getNodes().size());
+
+        testDag.getNodes().add(n14);
+        testDag.getNodes().add(n15);
+        assertEquals("Testing an appended node can be looked up", n14, testDag.getNodeWithValue(14));
+        assertEquals("Testing a second appended node can be looked up", n15, testDag.getNodeWithValue(15));
+
+        assertTrue("Testing that the LCAs of n15 and n7 = [n5]",
+                testDag.getLCAs(n15, testDag.getNodeWithValue(7)).equals(
+                        new ArrayList<>(Arrays.asList(testDag.getNodeWithValue(5)))));
+
+        assertTrue("Testing that the LCAs of n15 and n4 = [n1]",
+                testDag.getLCAs(n15, testDag.getNodeWithValue(4)).equals(
+                        new ArrayList<>(Arrays.asList(testDag.getNodeWithValue(1)))));
+
+        // an edge between nodes already in the graph also refreshes the LCA snapshot
+        testDag.getNodeWithValue(6).addChild(n15);
+        n15.addParent(testDag.getNodeWithValue(6));
+
+        assertTrue("Testing that the LCAs of n15 and n4 = [n2] once n6 -> n15 exists",
+                testDag.getLCAs(n15, testDag.getNodeWithValue(4)).equals(
+                        new ArrayList<>(Arrays.asList(testDag.getNodeWithValue(2)))));
+    }
+
+    @Test
+    public void testMappedDag() throws IOException {
+        for (DirectedAcyclicGraph testDag : Arrays.asList(generateTestGraph1(), generateTestGraph2())) {
+            CompactDag compactDag = testDag.freeze();
+            Path file = Files.createTempFile("lca", ".dag");
+            file.toFile().deleteOnExit();
+
+            MappedDag.write(compactDag, new TransitiveClosureIndex(compactDag), file);
+
+            // 64 byte chunks, so the sections span several mappings
+            MappedDag mappedDag = MappedDag.open(file, 6);
+            ReachabilityIndex closure = mappedDag.reachabilityIndex();
+
+            assertEquals("Testing the mapped graph has every node", compactDag.size(), mappedDag.size());
+            assertEquals("Testing the mapped graph has every edge", compactDag.edgeCount(), mappedDag.edgeCount());
+            assertEquals("Testing a missing value has no id", -1, mappedDag.idOf(99));
+
+            for (Node target1 : testDag.getNodes()) {
+                int id1 = mappedDag.idOf(target1.getVal());
+                assertEquals("Testing the id of " + target1, compactDag.idOf(target1.getVal()), id1);
+
+                for (Node target2 : testDag.getNodes()) {
+                    int id2 = mappedDag.idOf(target2.getVal());
+                    assertTrue("Testing the mapped LCAs of " + target1 + " and " + target2,
+                            Arrays.equals(compactDag.getLCAs(id1, id2), mappedDag.getLCAs(id1, id2)));
+                    assertEquals("Testing the mapped closure for " + target1 + " and " + target2,
+                            testDag.bfsForTarget(target1, target2), closure.isAncestor(id1, id2));
+                }
+            }
+
+            Path plainFile = Files.createTempFile("lca", ".dag");
+            plainFile.toFile().deleteOnExit();
+
+            MappedDag.write(compactDag, plainFile);
+            assertTrue("Testing a file written without a closure has no reachability index",
+                    MappedDag.open(plainFile).reachabilityIndex() == null);
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        for (DirectedAcyclicGraph testDag : Arrays.asList(generateTestGraph1(), generateTestGraph2())) {
+            CompactDag compactDag = testDag.freeze();
+            Path file = Files.createTempFile("lca", ".snapshot");
+            file.toFile().deleteOnExit();
+
+            LcaSnapshot.save(compactDag, new TransitiveClosureIndex(compactDag), file);
+            LcaSnapshot snapshot = LcaSnapshot.load(file);
+            DirectedAcyclicGraph loadedDag = snapshot.graph();
+            ReachabilityIndex closure = snapshot.reachabilityIndex();
+
+            assertEquals("Testing the loaded graph has every node", testDag.getNodes().size(), loadedDag.getNodes().size());
+
+            for (Node target1 : testDag.getNodes()) {
+                Node loaded1 = loadedDag.getNodeWithValue(target1.getVal());
+                int id1 = compactDag.idOf(target1.getVal());
+                assertTrue("Testing the children of " + target1 + " are restored",
+                        Arrays.equals(compactDag.children(id1), snapshot.compactDag().children(id1)));
+
+                for (Node target2 : testDag.getNodes()) {
+                    Node loaded2 = loadedDag.getNodeWithValue(target2.getVal());
+
+                    ArrayList<Integer> expected = new ArrayList<>();
+                    for (Node lca : testDag.getLCAs(target1, target2)) expected.add(lca.getVal());
+                    ArrayList<Integer> actual = new ArrayList<>();
+                    for (Node lca : loadedDag.getLCAs(loaded1, loaded2)) actual.add(lca.getVal());
+
+                    assertEquals("Testing the loaded LCAs of " + target1 + " and " + target2, expected, actual);
+                    assertEquals("Testing the loaded closure for " + target1 + " and " + target2,
+                            testDag.bfsForTarget(target1, target2),
+                            closure.isAncestor(id1, compactDag.idOf(target2.getVal())));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCompactDagBuilder() throws IOException {
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+
+        // the edges of graph 1, with repeats and a comment
+        String edgeList = "# parent child\n1 2\n1 3, 2 4\n3 5\t4 6\n5 7\n5 8\n7 10\n10 9\n10 13\n"
+                + "10 11\n11 12\n1 2\n10 9";
+        CompactDag textDag = new CompactDagBuilder()
+                .readText(new ByteArrayInputStream(edgeList.getBytes("US-ASCII")))
+                .build();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Node parent : testDag.getNodes()) {
+            for (Node child : parent.getChildren()) {
+                out.writeInt(parent.getVal());
+                out.writeInt(child.getVal());
+                out.writeInt(parent.getVal());
+                out.writeInt(child.getVal());
+            }
+        }
+        CompactDag binaryDag = new CompactDagBuilder()
+                .readBinary(new ByteArrayInputStream(bytes.toByteArray()))
+                .build();
+
+        for (CompactDag builtDag : Arrays.asList(textDag, binaryDag)) {
+            assertEquals("Testing the built graph has every node", 13, builtDag.size());
+            assertEquals("Testing repeated edges are dropped", 12, builtDag.edgeCount());
+            assertTrue("Testing children keep their order",
+                    Arrays.equals(new int[]{builtDag.idOf(9), builtDag.idOf(13), builtDag.idOf(11)},
+                            builtDag.children(builtDag.idOf(10))));
+
+            DirectedAcyclicGraph builtGraph = builtDag.toGraph();
+            for (Node target1 : testDag.getNodes()) {
+                for (Node target2 : testDag.getNodes()) {
+                    ArrayList<Integer> expected = new ArrayList<>();
+                    for (Node lca : testDag.getLCAs(target1, target2)) expected.add(lca.getVal());
+                    ArrayList<Integer> actual = new ArrayList<>();
+                    for (Node lca : builtGraph.getLCAs(builtGraph.getNodeWithValue(target1.getVal()),
+                            builtGraph.getNodeWithValue(target2.getVal()))) {
+                        actual.add(lca.getVal());
+                    }
+                    assertEquals("Testing the built LCAs of " + target1 + " and " + target2, expected, actual);
+                }
+            }
+        }
+
+        CompactDagBuilder builder = new CompactDagBuilder();
+        builder.addNode(-7);
+        builder.addEdge(-7, 3);
+        assertEquals("Testing a node added on its own keeps the first id", 0, builder.build().idOf(-7));
+
+        // a long, repetitive stream is compacted as it arrives and keeps the first arrival order
+        CompactDagBuilder repeats = new CompactDagBuilder();
+        for (int round = 0; round < 1000; round++) {
+            repeats.addEdge(0, 2).addEdge(0, 1).addEdge(1, 2);
+        }
+        repeats.addEdge(0, 3);
+        CompactDag repeatDag = repeats.build();
+        assertEquals("Testing every edge added is counted", 3001, repeats.edgeCount());
+        assertEquals("Testing the repeats are dropped", 4, repeatDag.edgeCount());
+        assertTrue("Testing the children of 0 keep their first arrival order",
+                Arrays.equals(new int[]{repeatDag.idOf(2), repeatDag.idOf(1), repeatDag.idOf(3)},
+                        repeatDag.children(repeatDag.idOf(0))));
+        assertEquals("Testing a build can follow another", 5, repeats.addEdge(3, 4).build().edgeCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCompactDagBuilderCycle() {
+        new CompactDagBuilder().addEdge(1, 2).addEdge(2, 3).addEdge(3, 1).build();
+    }
+
+    @Test
+    public void testIncrementalIndex() {
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+        IncrementalDagIndex index = testDag.enableIncrementalIndex();
+
+        Node n14 = new Node(14, null, null);
+        Node n15 = new Node(15, null, null);
+        n14.addChild(n15);
+        n15.addParent(n14);
+
+        // a new subtree, an edge against the current topological order, and one to an existing node
+        testDag.getNodes().add(n14);
+        testDag.getNodes().add(n15);
+        testDag.getNodeWithValue(8).addChild(n14);
+        n14.addParent(testDag.getNodeWithValue(8));
+        testDag.getNodeWithValue(12).addChild(testDag.getNodeWithValue(6));
+        testDag.getNodeWithValue(6).addParent(testDag.getNodeWithValue(12));
+        n15.addChild(testDag.getNodeWithValue(9));
+        testDag.getNodeWithValue(9).addParent(n15);
+
+        assertTrue("Testing an edge that would close a cycle is refused",
+                !testDag.getNodeWithValue(6).addChild(testDag.getNodeWithValue(3)));
+        assertTrue("Testing a node cannot become its own child",
+                !n15.addChild(n15));
+        assertEquals("Testing a refused edge is not added", 0, testDag.getNodeWithValue(6).getChildren().size());
+
+        // an appended node whose child only joins later: the edge waits for it
+        Node n16 = new Node(16, null, null);
+        Node n17 = new Node(17, new ArrayList<>(Arrays.asList(n16)), null);
+        testDag.getNodes().add(n17);
+        testDag.getNodeWithValue(17);
+        testDag.getNodes().add(n16);
+        testDag.getNodeWithValue(16);
+        assertTrue("Testing a waiting edge is indexed once its child joins",
+                index.isAncestor(index.idOf(n17), index.idOf(n16)));
+
+        int[] order = index.topologicalOrder();
+        int[] position = new int[order.length];
+        for (int i = 0; i < order.length; i++) position[order[i]] = i;
+        for (Node parent : testDag.getNodes()) {
+            for (Node child : parent.getChildren()) {
+                assertTrue("Testing " + parent + " comes before " + child + " in the topological order",
+                        position[index.idOf(parent)] < position[index.idOf(child)]);
+            }
+        }
+
+        DagLcaEngine rebuilt = testDag.buildLcaEngine();
+        for (Node target1 : testDag.getNodes()) {
+            for (Node target2 : testDag.getNodes()) {
+                assertEquals("Testing incremental LCAs of " + target1 + " and " + target2,
+                        rebuilt.getLCAs(target1, target2), testDag.getLCAs(target1, target2));
+            }
+        }
+
+        testDag.disableIncrementalIndex();
+        for (Node start : testDag.getNodes()) {
+            for (Node target : testDag.getNodes()) {
+                assertEquals("Testing incremental reachability of " + start + " and " + target,
+                        testDag.bfsForTarget(start, target), index.isAncestor(index.idOf(start), index.idOf(target)));
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalIndexWaitingEdgeCycle() {
+        DirectedAcyclicGraph testDag = generateTestGraph2();
+        testDag.enableIncrementalIndex();
+
+        // n7 joins pointing at n6, which is not in the graph and points back at n7
+        Node n6 = new Node(6, null, null);
+        Node n7 = new Node(7, new ArrayList<>(Arrays.asList(n6)), null);
+        n6.addChild(n7);
+        testDag.getNodes().add(n7);
+        testDag.getNodeWithValue(7);
+
+        // n20 is outside the graph too, and reaches n5 through n1
+        Node n20 = new Node(20, new ArrayList<>(Arrays.asList(testDag.getNodeWithValue(1))), null);
+        assertTrue("Testing an edge to a node outside the graph that reaches the parent is refused",
+                !testDag.getNodeWithValue(5).addChild(n20));
+        assertTrue("Testing an edge to a node outside the graph is accepted",
+                testDag.getNodeWithValue(1).addChild(n6));
+        assertEquals("Testing the child outside the graph does not join", 6, testDag.getNodes().size());
+
+        // n8 joins with a child list that closes a cycle through n9: nothing refused it, so the
+        // query that notices drops the index instead of failing
+        Node n9 = new Node(9, null, null);
+        Node n8 = new Node(8, new ArrayList<>(Arrays.asList(n9)), null);
+        n9.getChildren().add(n8);
+        testDag.getNodes().add(n9);
+        testDag.getNodes().add(n8);
+        assertEquals("Testing a query after the cycle joined still answers",
+                new ArrayList<>(Arrays.asList(testDag.getNodeWithValue(1))),
+                testDag.getLCAs(testDag.getNodeWithValue(4), testDag.getNodeWithValue(3)));
+        assertTrue("Testing the index was dropped, so addChild no longer refuses cycles",
+                n8.addChild(testDag.getNodeWithValue(1)) && testDag.getNodeWithValue(1).addChild(n8));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIncrementalIndexOnCycle() {
+        DirectedAcyclicGraph testDag = generateTestGraph2();
+        Node n1 = testDag.getNodeWithValue(1);
+        testDag.getNodeWithValue(5).getChildren().add(n1);
+        testDag.enableIncrementalIndex();
+    }
+
+    @Test
+    public void testIncrementalIndexMemoryBudget() {
+        // no budget for rows: reachability is searched along the topological order
+        DirectedAcyclicGraph searched = generateTestGraph1();
+        IncrementalDagIndex searchedIndex = searched.enableIncrementalIndex(0);
+        assertTrue("Testing a zero budget keeps no rows", !searchedIndex.keepsDescendantRows());
+
+        // room for the rows of graph 1, but not once it has grown to 80 nodes
+        DirectedAcyclicGraph labelled = generateTestGraph1();
+        IncrementalDagIndex labelledIndex = labelled.enableIncrementalIndex(400);
+        assertTrue("Testing the rows are kept while they fit", labelledIndex.keepsDescendantRows());
+
+        for (DirectedAcyclicGraph testDag : Arrays.asList(searched, labelled)) {
+            Node last = testDag.getNodeWithValue(12);
+            for (int val = 100; val < 167; val++) {
+                Node next = new Node(val, null, null);
+                testDag.getNodes().add(next);
+                testDag.getNodeWithValue(val);
+                assertTrue("Testing the chain edge to " + val + " is accepted", last.addChild(next));
+                last = next;
+            }
+            assertTrue("Testing an edge that would close a cycle is still refused",
+                    !last.addChild(testDag.getNodeWithValue(10)));
+            // 6 -> 100 goes against the order, so the order has to be repaired
+            assertTrue("Testing an edge against the order is accepted",
+                    testDag.getNodeWithValue(6).addChild(testDag.getNodeWithValue(100)));
+        }
+        assertTrue("Testing the rows are dropped once they outgrow the budget", !labelledIndex.keepsDescendantRows());
+
+        for (DirectedAcyclicGraph testDag : Arrays.asList(searched, labelled)) {
+            IncrementalDagIndex index = testDag == searched ? searchedIndex : labelledIndex;
+            CompactDag frozen = testDag.freeze();
+            TransitiveClosureIndex closure = new TransitiveClosureIndex(frozen);
+            for (Node start : testDag.getNodes()) {
+                for (Node target : testDag.getNodes()) {
+                    assertEquals("Testing reachability of " + start + " and " + target + " without rows",
+                            closure.isAncestor(frozen.idOf(start.getVal()), frozen.idOf(target.getVal())),
+                            index.isAncestor(index.idOf(start), index.idOf(target)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLcaCache() {
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+        LcaCache<ArrayList<Node>> cache = testDag.enableLcaCache(16);
+        Node n4 = testDag.getNodeWithValue(4);
+        Node n12 = testDag.getNodeWithValue(12);
+
+        ArrayList<Node> first = testDag.getLCAs(n4, n12);
+        first.clear();
+        assertTrue("Testing a cached result is not affected by changes to a returned list",
+                testDag.getLCAs(n12, n4).equals(new ArrayList<>(Arrays.asList(testDag.getNodeWithValue(1)))));
+        assertEquals("Testing the repeated query hit the cache", 1L, cache.hits());
+
+        // n2 -> n8 moves the LCA of n4 and n12 down to n2
+        testDag.getNodeWithValue(2).addChild(testDag.getNodeWithValue(8));
+        testDag.getNodeWithValue(8).addParent(testDag.getNodeWithValue(2));
+        testDag.getNodeWithValue(8).addChild(n12);
+        n12.addParent(testDag.getNodeWithValue(8));
+
+        assertEquals("Testing addChild empties the cache", 0, cache.size());
+        assertTrue("Testing the LCAs after the change",
+                testDag.getLCAs(n4, n12).equals(new ArrayList<>(Arrays.asList(testDag.getNodeWithValue(2)))));
+    }
+
+    @Test
+    public void testParallelIndexBuilder() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // random edges between 500 shuffled ids, always from the earlier to the later rank
+            Random random = new Random(11);
+            int[] rank = new int[500];
+            for (int i = 0; i < rank.length; i++) rank[i] = i;
+            for (int i = rank.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int tmp = rank[i];
+                rank[i] = rank[j];
+                rank[j] = tmp;
+            }
+            CompactDagBuilder builder = new CompactDagBuilder();
+            for (int i = 0; i < rank.length; i++) builder.addNode(rank[i]);
+            for (int e = 0; e < 2000; e++) {
+                int a = random.nextInt(rank.length);
+                int b = random.nextInt(rank.length);
+                if (a != b) builder.addEdge(rank[Math.min(a, b)], rank[Math.max(a, b)]);
+            }
+
+            for (CompactDag compactDag : Arrays.asList(generateTestGraph1().freeze(), generateTestGraph2().freeze(), builder.build())) {
+                ParallelIndexBuilder parallel = new ParallelIndexBuilder(pool, 4);
+                assertTrue("Testing the parallel topological order matches",
+                        Arrays.equals(compactDag.topologicalOrder(), parallel.topologicalOrder(compactDag)));
+
+                TransitiveClosureIndex serialClosure = new TransitiveClosureIndex(compactDag);
+                TransitiveClosureIndex parallelClosure = parallel.transitiveClosure(compactDag);
+                for (int id = 0; id < compactDag.size(); id++) {
+                    assertTrue("Testing the parallel closure row of " + compactDag.value(id) + " matches",
+                            Arrays.equals(serialClosure.descendantBits(id), parallelClosure.descendantBits(id)));
+                }
+            }
+
+            DirectedAcyclicGraph testDag = generateTestGraph1();
+            assertTrue("Testing the graph's parallel build picks the transitive closure",
+                    testDag.buildReachabilityIndex(1 << 20, pool) instanceof TransitiveClosureIndex);
+            assertTrue("Confirm 10 is an ancestor of 12 using the parallel index",
+                    testDag.bfsForTarget(testDag.getNodeWithValue(10), testDag.getNodeWithValue(12)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParallelTopologicalOrderCycle() {
+        CompactDag cyclic = new CompactDag(new int[]{1, 2, 3}, new int[]{0, 1, 2, 3}, new int[]{1, 2, 0});
+        new ParallelIndexBuilder().topologicalOrder(cyclic);
+    }
+
+    @Test
+    public void testBulkLca() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            // a random DAG of 120 nodes with edges from lower to higher values
+            Random random = new Random(5);
+            CompactDagBuilder builder = new CompactDagBuilder();
+            for (int val = 0; val < 120; val++) builder.addNode(val);
+            for (int e = 0; e < 300; e++) {
+                int a = random.nextInt(120);
+                int b = random.nextInt(120);
+                if (a != b) builder.addEdge(Math.min(a, b), Math.max(a, b));
+            }
+
+            for (CompactDag compactDag : Arrays.asList(generateTestGraph1().freeze(), generateTestGraph2().freeze(), builder.build())) {
+                DagBulkLca bulk = new DagBulkLca(compactDag, pool);
+                LcaMatrix matrix = bulk.allPairs();
+                assertEquals("Testing the matrix size", compactDag.size(), matrix.size());
+
+                for (int id1 = 0; id1 < compactDag.size(); id1++) {
+                    int[][] row = bulk.oneToMany(id1);
+                    for (int id2 = 0; id2 < compactDag.size(); id2++) {
+                        int[] expected = compactDag.getLCAs(id1, id2);
+                        assertTrue("Testing one-to-many LCAs of " + id1 + " and " + id2, Arrays.equals(expected, row[id2]));
+                        assertTrue("Testing all-pairs LCAs of " + id1 + " and " + id2, Arrays.equals(expected, matrix.get(id1, id2)));
+                        assertEquals("Testing the first LCA of " + id1 + " and " + id2,
+                                expected.length == 0 ? -1 : expected[0], matrix.first(id1, id2));
+                    }
+                }
+            }
+
+            // 9 and 12 in graph 1 share the single LCA 10
+            CompactDag compactDag = generateTestGraph1().freeze();
+            int[] seen = new int[1];
+            int[] order = compactDag.topologicalOrder();
+            int[] position = new int[order.length];
+            for (int i = 0; i < order.length; i++) position[order[i]] = i;
+            new DagBulkLca(compactDag, pool).oneToMany(compactDag.idOf(9), (id1, id2, lcas, count) -> {
+                if (id2 == compactDag.idOf(12)) {
+                    assertEquals("Testing the sink receives one LCA", 1, count);
+                    assertEquals("Testing the sink receives 10", 10, compactDag.value(lcas[0]));
+                }
+                // each target is handed over as soon as its row is final
+                assertEquals("Testing the sink sees targets in topological order", seen[0], position[id2]);
+                seen[0]++;
+            });
+            assertEquals("Testing the sink sees every target", compactDag.size(), seen[0]);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testTraceListener() {
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+        Node n10 = testDag.getNodeWithValue(10);
+        Node n12 = testDag.getNodeWithValue(12);
+
+        // no listener means no console output
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(console));
+        try {
+            assertTrue("Confirm 10 is an ancestor of 12", testDag.bfsForTarget(n10, n12));
+            testDag.colourAncestorsBlue(n12);
+            testDag.getRedNodes();
+        } finally {
+            System.setOut(stdout);
+        }
+        assertEquals("Testing untraced searches print nothing", 0, console.size());
+        testDag.resetColors();
+
+        List<Integer> visited = new ArrayList<>();
+        testDag.setTraceListener(new LcaTraceListener() {
+            @Override
+            public void searchVisited(Node node) {
+                visited.add(node.getVal());
+            }
+        });
+        assertTrue("Confirm 10 is an ancestor of 12 with a listener", testDag.bfsForTarget(n10, n12));
+        assertEquals("Testing the listener sees each visited node", Arrays.asList(10, 9, 13, 11), visited);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        testDag.setTraceListener(new ConsoleTraceListener(new PrintStream(out)));
+        testDag.bfsForTarget(n10, n12);
+        assertTrue("Testing the console trace shows the search", out.toString().contains("Cur Node: " + n10));
+        out.reset();
+        testDag.colourAncestorsBlue(n12);
+        testDag.getBlueNodes();
+        assertTrue("Testing the console trace lists blue nodes", out.toString().contains("Blue nodes: "));
+
+        testDag.setTraceListener(null);
+        out.reset();
+        testDag.bfsForTarget(n10, n12);
+        assertEquals("Testing tracing can be turned off", 0, out.size());
+    }
+
+    @Test
+    public void testMetrics() {
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+        LcaMetrics metrics = new LcaMetrics();
+        testDag.setMetrics(metrics);
+
+        // the reverse searches from 9 and 12 reach 9 10 7 5 3 1 and 12 11 10 7 5 3 1
+        testDag.getLCAs(testDag.getNodeWithValue(9), testDag.getNodeWithValue(12));
+        LcaMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals("Testing the query is counted", 1, snapshot.queryCount());
+        assertEquals("Testing the nodes both searches visited", 13, snapshot.nodesVisited());
+        assertEquals("Testing the edges both searches followed", 11, snapshot.edgesTraversed());
+        assertEquals("Testing the engine build is counted", 1, snapshot.indexBuilds());
+
+        testDag.enableLcaCache(8);
+        testDag.getLCAs(testDag.getNodeWithValue(9), testDag.getNodeWithValue(12));
+        testDag.getLCAs(testDag.getNodeWithValue(12), testDag.getNodeWithValue(9));
+        testDag.buildReachabilityIndex();
+        snapshot = metrics.snapshot();
+        assertEquals("Testing cache misses are counted", 1, snapshot.cacheMisses());
+        assertEquals("Testing cache hits are counted", 1, snapshot.cacheHits());
+        assertEquals("Testing every query is counted", 3, snapshot.queryCount());
+        assertEquals("Testing the cached query adds no work", 26, snapshot.nodesVisited());
+        assertEquals("Testing the reachability build is counted", 2, snapshot.indexBuilds());
+
+        testDag.setMetrics(null);
+        testDag.getLCAs(testDag.getNodeWithValue(4), testDag.getNodeWithValue(6));
+        assertEquals("Testing detached metrics record nothing", 3, metrics.snapshot().queryCount());
+
+        // the incremental index answers with the same searches
+        testDag = generateTestGraph1();
+        metrics = new LcaMetrics();
+        testDag.setMetrics(metrics);
+        testDag.enableIncrementalIndex();
+        testDag.getLCAs(testDag.getNodeWithValue(9), testDag.getNodeWithValue(12));
+        snapshot = metrics.snapshot();
+        assertEquals("Testing the nodes visited with the incremental index", 13, snapshot.nodesVisited());
+        assertEquals("Testing the edges followed with the incremental index", 11, snapshot.edgesTraversed());
+    }
+
+    @Test
+    public void testDistanceEngine() {
+        CompactDag compactDag = generateTestGraph1().freeze();
+        DagDistanceEngine engine = new DagDistanceEngine(compactDag);
+
+        int n1 = compactDag.idOf(1);
+        int n12 = compactDag.idOf(12);
+        assertEquals("Testing the distance from 1 to 12", 6, engine.distance(n1, n12));
+        assertEquals("Testing 12 cannot reach 1", -1, engine.distance(n12, n1));
+        assertTrue("Testing the path from 1 to 12", Arrays.equals(new int[]{1, 3, 5, 7, 10, 11, 12},
+                valuesOf(compactDag, engine.shortestPath(n1, n12))));
+
+        // one reverse BFS from 12 measures every ancestor
+        assertEquals("Testing 12 has six ancestors", 6, engine.distancesToAncestors(n12));
+        assertEquals("Testing the distance from 5 up from 12", 4, engine.distanceOf(compactDag.idOf(5)));
+        assertEquals("Testing 9 is not an ancestor of 12", -1, engine.distanceOf(compactDag.idOf(9)));
+        assertTrue("Testing the path up from 12 to 7", Arrays.equals(new int[]{12, 11, 10, 7},
+                valuesOf(compactDag, engine.pathTo(compactDag.idOf(7)))));
+
+        // a random DAG: reverse distances agree with forward searches, single and multi-source
+        Random random = new Random(17);
+        CompactDagBuilder builder = new CompactDagBuilder();
+        for (int val = 0; val < 200; val++) builder.addNode(val);
+        for (int e = 0; e < 600; e++) {
+            int a = random.nextInt(200);
+            int b = random.nextInt(200);
+            if (a != b) builder.addEdge(Math.min(a, b), Math.max(a, b));
+        }
+        CompactDag randomDag = builder.build();
+        DagDistanceEngine forward = new DagDistanceEngine(randomDag);
+        DagDistanceEngine reverse = new DagDistanceEngine(randomDag);
+
+        int[] targets = {randomDag.idOf(150), randomDag.idOf(180), randomDag.idOf(199)};
+        for (int target : targets) {
+            reverse.distancesToAncestors(target);
+            for (int id = 0; id < randomDag.size(); id++) {
+                assertEquals("Testing the reverse distance from " + id, forward.distance(id, target), reverse.distanceOf(id));
+            }
+        }
+        reverse.distancesToAncestors(targets);
+        for (int id = 0; id < randomDag.size(); id++) {
+            int nearest = -1;
+            for (int target : targets) {
+                int d = forward.distance(id, target);
+                if (d != -1 && (nearest == -1 || d < nearest)) nearest = d;
+            }
+            assertEquals("Testing the multi-source distance from " + id, nearest, reverse.distanceOf(id));
+        }
+
+        // the thread's engine follows the graph it is given
+        assertEquals("Testing the pooled engine on a second graph", 6,
+                DagDistanceEngine.forThread(compactDag).distance(n1, n12));
+    }
+
+    private static int[] valuesOf(CompactDag compactDag, int[] ids) {
+        int[] vals = new int[ids.length];
+        for (int i = 0; i < ids.length; i++) vals[i] = compactDag.value(ids[i]);
+        return vals;
+    }
+
+    @Test
+    public void testKeyDictionaries() {
+        // graph 1 keyed by strings, built straight from the dictionary's ids
+        ObjectKeyDictionary<String> names = new ObjectKeyDictionary<>();
+        CompactDagBuilder builder = CompactDagBuilder.forKeys(names);
+        int[][] edges = {{1, 2}, {1, 3}, {2, 4}, {3, 5}, {4, 6}, {5, 7}, {5, 8}, {7, 10}, {10, 9}, {10, 13}, {10, 11}, {11, 12}};
+        for (int[] edge : edges) {
+            builder.addEdge(names.add("n" + edge[0]), names.add("n" + edge[1]));
+        }
+        CompactDag compactDag = builder.build();
+        assertEquals("Testing every key is a node", 13, compactDag.size());
+
+        int[] lcas = compactDag.getLCAs(names.idOf("n9"), names.idOf("n12"));
+        assertEquals("Testing 9 and 12 have one LCA", 1, lcas.length);
+        assertEquals("Testing the LCA of 9 and 12 is 10", "n10", names.keyOf(lcas[0]));
+        assertEquals("Testing an unknown key", -1, names.idOf("n14"));
+
+        // long keys: many content hashes, no two colliding ids
+        LongKeyDictionary hashes = new LongKeyDictionary();
+        Random random = new Random(23);
+        long[] keys = new long[10000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = random.nextLong();
+            assertEquals("Testing ids are handed out in order", i, hashes.add(keys[i]));
+        }
+        for (int i = 0; i < keys.length; i++) {
+            assertEquals("Testing a hash maps back to its id", i, hashes.idOf(keys[i]));
+            assertEquals("Testing an id maps back to its hash", keys[i], hashes.longKeyOf(i));
+        }
+        assertEquals("Testing a repeated key keeps its id", 17, hashes.add(keys[17]));
+        assertEquals("Testing the dictionary size", keys.length, hashes.size());
+
+        IntKeyDictionary ints = new IntKeyDictionary();
+        assertEquals("Testing the first int key", 0, ints.add(-5));
+        assertEquals("Testing the second int key", 1, ints.add(Integer.MAX_VALUE));
+        assertEquals("Testing an int key maps back", -5, ints.intKeyOf(0));
+
+        // the same dictionaries through the shared interface
+        KeyDictionary<Long> generic = hashes;
+        assertEquals("Testing a boxed key maps to its id", 17, generic.idOf(keys[17]));
+        assertEquals("Testing an id maps back to a boxed key", (Long) keys[17], generic.keyOf(17));
+        KeyDictionary<Integer> genericInts = ints;
+        assertEquals("Testing a boxed int key is added once", 1, genericInts.add(Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testKeyedBuilderRejectsUnknownId() {
+        IntKeyDictionary ints = new IntKeyDictionary();
+        ints.add(3);
+        CompactDagBuilder.forKeys(ints).addEdge(0, 1);
+    }
+
+    @Test
+    public void testWeightedLca() {
+        // graph 1 with 10 -> 9 made expensive: the LCA of 9 and 12 is still 10 under MAX, since
+        // every common ancestor reaches 9 through that edge
+        CompactDag compactDag = generateTestGraph1().freeze();
+        double[] weights = WeightedDagLca.unitWeights(compactDag);
+        int n10 = compactDag.idOf(10);
+        for (int j = compactDag.childStart(n10); j < compactDag.childEnd(n10); j++) {
+            if (compactDag.value(compactDag.childAt(n10, j)) == 9) weights[j] = 50;
+        }
+        WeightedDagLca weighted = new WeightedDagLca(compactDag, weights);
+        int n9 = compactDag.idOf(9);
+        int n12 = compactDag.idOf(12);
+        assertTrue("Testing the weighted LCA of 9 and 12", Arrays.equals(new int[]{n10}, weighted.getLCAs(n9, n12)));
+        assertEquals("Testing the cost from 1 down to 9", 54.0, weighted.distance(compactDag.idOf(1), n9));
+        assertEquals("Testing 9 cannot reach 1", Double.POSITIVE_INFINITY, weighted.distance(n9, compactDag.idOf(1)));
+
+        // a diamond 0 -> 1 -> 3, 0 -> 2 -> 3, 1 -> 4, 2 -> 5 with a cheap path through 2
+        CompactDagBuilder builder = new CompactDagBuilder();
+        builder.addEdge(0, 1).addEdge(0, 2).addEdge(1, 3).addEdge(2, 3).addEdge(1, 4).addEdge(2, 5);
+        CompactDag diamond = builder.build();
+        double[] costs = new double[diamond.edgeCount()];
+        for (int v = 0; v < diamond.size(); v++) {
+            for (int j = diamond.childStart(v); j < diamond.childEnd(v); j++) {
+                int from = diamond.value(v);
+                int to = diamond.value(diamond.childAt(v, j));
+                costs[j] = from == 1 && to == 3 ? 10 : from == 2 && to == 5 ? 4 : 1;
+            }
+        }
+        WeightedDagLca diamondLca = new WeightedDagLca(diamond, costs);
+        // 3 and 4: ancestors 0 (costs 2 and 2) and 1 (costs 10 and 1)
+        assertEquals("Testing MAX picks the balanced ancestor", 0,
+                diamond.value(diamondLca.getLCAs(diamond.idOf(3), diamond.idOf(4), WeightedDagLca.Combiner.MAX)[0]));
+        assertEquals("Testing SUM picks the cheaper total", 0,
+                diamond.value(diamondLca.getLCAs(diamond.idOf(3), diamond.idOf(4), WeightedDagLca.Combiner.SUM)[0]));
+        assertEquals("Testing MIN picks the closest side", 1,
+                diamond.value(diamondLca.getLCAs(diamond.idOf(3), diamond.idOf(4), WeightedDagLca.Combiner.MIN)[0]));
+        // 3 and 5: ancestors 0 (costs 2 and 5) and 2 (costs 1 and 4)
+        assertEquals("Testing the cheaper side path through 2", 2,
+                diamond.value(diamondLca.getLCAs(diamond.idOf(3), diamond.idOf(5))[0]));
+
+        // with unit weights and MAX the weighted mode agrees with getLCAs
+        Random random = new Random(29);
+        CompactDagBuilder randomBuilder = new CompactDagBuilder();
+        for (int val = 0; val < 150; val++) randomBuilder.addNode(val);
+        for (int e = 0; e < 400; e++) {
+            int a = random.nextInt(150);
+            int b = random.nextInt(150);
+            if (a != b) randomBuilder.addEdge(Math.min(a, b), Math.max(a, b));
+        }
+        CompactDag randomDag = randomBuilder.build();
+        WeightedDagLca unit = new WeightedDagLca(randomDag, WeightedDagLca.unitWeights(randomDag));
+        for (int q = 0; q < 500; q++) {
+            int id1 = random.nextInt(randomDag.size());
+            int id2 = random.nextInt(randomDag.size());
+            assertTrue("Testing unit weights match getLCAs for " + id1 + " and " + id2,
+                    Arrays.equals(randomDag.getLCAs(id1, id2), unit.getLCAs(id1, id2)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWeightedLcaRejectsNegativeWeight() {
+        CompactDag compactDag = generateTestGraph1().freeze();
+        double[] weights = WeightedDagLca.unitWeights(compactDag);
+        weights[3] = -1;
+        new WeightedDagLca(compactDag, weights);
+    }
+
+    @Test
+    public void testMultiNodeLca() {
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+        Node n9 = testDag.getNodeWithValue(9);
+        Node n12 = testDag.getNodeWithValue(12);
+        Node n13 = testDag.getNodeWithValue(13);
+        Node n6 = testDag.getNodeWithValue(6);
+
+        assertTrue("Testing the LCA of 9, 12 and 13 is 10",
+                testDag.getLCAs(n9, n12, n13).equals(new ArrayList<>(Arrays.asList(testDag.getNodeWithValue(10)))));
+        assertTrue("Testing the LCA of 9, 12 and 6 is 1",
+                testDag.getLCAs(n9, n12, n6).equals(new ArrayList<>(Arrays.asList(testDag.getNodeWithValue(1)))));
+        assertTrue("Testing two targets match the pairwise query",
+                testDag.getLCAs(new Node[]{n9, n12}).equals(testDag.getLCAs(n9, n12)));
+
+        testDag.enableIncrementalIndex();
+        assertTrue("Testing the LCA of 9, 12 and 13 with the incremental index",
+                testDag.getLCAs(n9, n12, n13).equals(new ArrayList<>(Arrays.asList(testDag.getNodeWithValue(10)))));
+
+        // random sets on a random DAG against a brute force over forward distances
+        Random random = new Random(37);
+        CompactDagBuilder builder = new CompactDagBuilder();
+        for (int val = 0; val < 150; val++) builder.addNode(val);
+        for (int e = 0; e < 500; e++) {
+            int a = random.nextInt(150);
+            int b = random.nextInt(150);
+            if (a != b) builder.addEdge(Math.min(a, b), Math.max(a, b));
+        }
+        CompactDag compactDag = builder.build();
+        DagDistanceEngine distances = new DagDistanceEngine(compactDag);
+
+        for (int q = 0; q < 200; q++) {
+            int[] ids = new int[1 + random.nextInt(5)];
+            for (int i = 0; i < ids.length; i++) ids[i] = random.nextInt(compactDag.size());
+
+            ArrayList<Integer> expected = new ArrayList<>();
+            int best = Integer.MAX_VALUE;
+            for (int c = 0; c < compactDag.size(); c++) {
+                int worst = 0;
+                for (int id : ids) {
+                    int d = distances.distance(c, id);
+                    if (d <= 0) {
+                        worst = -1;
+                        break;
+                    }
+                    worst = Math.max(worst, d);
+                }
+                if (worst == -1) continue;
+                if (worst < best) {
+                    best = worst;
+                    expected.clear();
+                }
+                if (worst == best) expected.add(c);
+            }
+
+            int[] actual = compactDag.getLCAs(ids);
+            assertEquals("Testing the LCA count of " + Arrays.toString(ids), expected.size(), actual.length);
+            for (int i = 0; i < actual.length; i++) {
+                assertEquals("Testing the LCAs of " + Arrays.toString(ids), (int) expected.get(i), actual[i]);
+            }
+            if (ids.length == 2) {
+                assertTrue("Testing a pair matches getLCAs", Arrays.equals(compactDag.getLCAs(ids[0], ids[1]), actual));
+            }
+        }
+    }
+
+    @Test
+    public void testLCAsSeeNewEdges() {
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+        Node n4 = testDag.getNodeWithValue(4);
+        Node n5 = testDag.getNodeWithValue(5);
+        assertEquals("Testing the LCAs of n4 and n5 before the new edges",
+                new ArrayList<>(Arrays.asList(testDag.getNodeWithValue(1))), testDag.getLCAs(n4, n5));
+
+        // the query above built a snapshot; the new edges must replace it
+        Node n20 = new Node(20, null, null);
+        testDag.getNodes().add(n20);
+        n20.addChild(n4);
+        n20.addChild(n5);
+        assertEquals("Testing the LCAs of n4 and n5 after the new edges",
+                new ArrayList<>(Arrays.asList(n20)), testDag.getLCAs(n4, n5));
+
+        // an edge added to a child list directly is picked up once the graph is told
+        Node n6 = testDag.getNodeWithValue(6);
+        n20.getChildren().add(n6);
+        testDag.edgesChanged();
+        assertEquals("Testing the LCAs of n6 and n5 after edgesChanged",
+                new ArrayList<>(Arrays.asList(n20)), testDag.getLCAs(n6, n5));
+
+        // the graph works on the list it was given
+        ArrayList<Node> nodes = new ArrayList<>(Arrays.asList(new Node(22, null, null)));
+        DirectedAcyclicGraph shared = new DirectedAcyclicGraph(nodes);
+        nodes.add(new Node(23, null, null));
+        assertEquals("Testing a node appended to the given list joins the graph", 23, shared.getNodeWithValue(23).getVal());
+    }
+
+    @Test
+    public void testGraphsShareNodes() {
+        DirectedAcyclicGraph testDag = generateTestGraph1();
+        DirectedAcyclicGraph sameNodes = new DirectedAcyclicGraph(testDag.getNodes());
+        Node n4 = testDag.getNodeWithValue(4);
+        Node n5 = testDag.getNodeWithValue(5);
+        assertEquals("Testing both graphs answer the same", testDag.getLCAs(n4, n5), sameNodes.getLCAs(n4, n5));
+
+        // both graphs hear about the new edge
+        Node n20 = new Node(20, null, null);
+        testDag.getNodes().add(n20);
+        n20.addChild(n4);
+        n20.addChild(n5);
+        ArrayList<Node> expected = new ArrayList<>(Arrays.asList(n20));
+        assertEquals("Testing the first graph sees the new edges", expected, testDag.getLCAs(n4, n5));
+        assertEquals("Testing the second graph sees the new edges", expected, sameNodes.getLCAs(n4, n5));
+    }
+
+    @Test(expected = IOException.class)
+    public void testSnapshotBadChildId() throws IOException {
+        Node n1 = new Node(1, null, null);
+        Node n2 = new Node(2, null, null);
+        n1.addChild(n2);
+        Path file = Files.createTempFile("lca", ".snapshot");
+        file.toFile().deleteOnExit();
+        LcaSnapshot.save(new DirectedAcyclicGraph(new ArrayList<>(Arrays.asList(n1, n2))).freeze(), file);
+
+        // the file ends with the child count and the one child offset of n1, then n2's empty count;
+        // point the offset past the last node
+        byte[] bytes = Files.readAllBytes(file);
+        assertEquals("Testing the snapshot ends with n1's one child", 1, bytes[bytes.length - 3]);
+        bytes[bytes.length - 2] = 10;
+        Files.write(file, bytes);
+
+        LcaSnapshot.load(file);
     }
 
     public static DirectedAcyclicGraph generateTestGraph1() {
@@ -4,6 +4,21 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import javax.management.ObjectName;
+
 @RunWith(JUnit4.class)
 public class LowestCommonAncestorTest {
 
@@ -160,5 +175,524 @@ public class LowestCommonAncestorTest {
                 testTree.getLowestCommonAncestor(6,17).getVal(), 1);
     }
 
+    @Test
+    public void testEulerTourIndexLowestCommonAncestor() {
+        BinaryTree testTree = LowestCommonAncestor.generateTestTree();
+        EulerTourIndex index = testTree.buildEulerTourIndex();
+
+        assertEquals("Test ancestor of same node",
+                index.getLowestCommonAncestor(1, 1).getVal(), 1);
+        assertEquals("Test where one of the nodes itself is the lowest common ancestor",
+                index.getLowestCommonAncestor(3, 7).getVal(), 3);
+        assertEquals("Test arbitrary common ancestor",
+                index.getLowestCommonAncestor(13, 14).getVal(), 11);
+        assertEquals("Test case where root is lca",
+                index.getLowestCommonAncestor(6, 17).getVal(), 1);
+        assertEquals("Test that a value not in the tree has no lca",
+                index.getLowestCommonAncestor(6, 99), null);
+
+        for (int val1 = 1; val1 <= 17; val1++) {
+            for (int val2 = 1; val2 <= 17; val2++) {
+                assertEquals("Test the index agrees with the path-based lca for " + val1 + ", " + val2,
+                        testTree.getLowestCommonAncestor(val1, val2),
+                        index.getLowestCommonAncestor(val1, val2));
+            }
+        }
+    }
+
+    @Test
+    public void testBinaryLiftingIndex() {
+        BinaryTree testTree = LowestCommonAncestor.generateTestTree();
+        BinaryLiftingIndex index = testTree.ancestorIndex();
+
+        assertEquals("Test depth of the root", index.getDepth(1), 0);
+        assertEquals("Test depth of a leaf", index.getDepth(15), 5);
+        assertEquals("Test depth of a value not in the tree", index.getDepth(99), -1);
+
+        assertEquals("Test 0th ancestor is the node itself", index.getKthAncestor(15, 0).getVal(), 15);
+        assertEquals("Test 2nd ancestor of 15", index.getKthAncestor(15, 2).getVal(), 11);
+        assertEquals("Test kth ancestor where k is the depth of the node", index.getKthAncestor(15, 5).getVal(), 1);
+        assertEquals("Test kth ancestor above the root", index.getKthAncestor(15, 6), null);
+
+        assertEquals("Test distance between a node and itself", index.getDistance(7, 7), 0);
+        assertEquals("Test distance between a node and its parent", index.getDistance(14, 15), 1);
+        assertEquals("Test distance through an lca", index.getDistance(15, 16), 5);
+
+        assertEquals("Test arbitrary common ancestor", index.getLowestCommonAncestor(13, 14).getVal(), 11);
+        assertEquals("Test case where root is lca", index.getLowestCommonAncestor(6, 17).getVal(), 1);
+
+        // the index follows nodes added after it was built
+        testTree.insert(18);
+        testTree.root().getlChild().getrChild().setLChild(19);
+
+        assertEquals("Test depth of an inserted node", index.getDepth(18), 2);
+        assertEquals("Test lca of inserted nodes", index.getLowestCommonAncestor(18, 19).getVal(), 1);
+        assertEquals("Test lca of an inserted node and an existing node",
+                index.getLowestCommonAncestor(19, 5).getVal(), 2);
+        assertEquals("Test distance between inserted nodes", index.getDistance(18, 19), 5);
+
+        for (int val1 = 1; val1 <= 19; val1++) {
+            for (int val2 = 1; val2 <= 19; val2++) {
+                assertEquals("Test the index agrees with the path-based lca for " + val1 + ", " + val2,
+                        testTree.getLowestCommonAncestor(val1, val2),
+                        index.getLowestCommonAncestor(val1, val2));
+            }
+        }
+    }
+
+    @Test
+    public void testBatchLowestCommonAncestors() {
+        BinaryTree testTree = LowestCommonAncestor.generateTestTree();
+
+        int[] vals1 = new int[17 * 17];
+        int[] vals2 = new int[17 * 17];
+        for (int i = 0; i < vals1.length; i++) {
+            vals1[i] = i / 17 + 1;
+            vals2[i] = i % 17 + 1;
+        }
+
+        int[] answers = testTree.getLowestCommonAncestors(vals1, vals2);
+
+        for (int i = 0; i < answers.length; i++) {
+            assertEquals("Test the batch answer agrees with the single lca for " + vals1[i] + ", " + vals2[i],
+                    testTree.getLowestCommonAncestor(vals1[i], vals2[i]).getVal(),
+                    answers[i]);
+        }
+
+        assertEquals("Test an empty batch has no answers",
+                testTree.getLowestCommonAncestors(new int[0], new int[0]).length, 0);
+    }
+
+    @Test(expected = java.util.NoSuchElementException.class)
+    public void testBatchLowestCommonAncestorsMissingValue() {
+        LowestCommonAncestor.generateTestTree().getLowestCommonAncestors(new int[]{1, 2}, new int[]{3, 99});
+    }
+
+    @Test
+    public void testGetNodeWithValue() {
+        BinaryTree testTree = LowestCommonAncestor.generateTestTree();
+
+        assertEquals("Test looking up the root by value", testTree.getNodeWithValue(1), testTree.root());
+        assertEquals("Test looking up a deep node by value",
+                testTree.getNodeWithValue(15),
+                testTree.root().getrChild().getrChild().getlChild().getrChild().getlChild());
+        assertEquals("Test looking up a value not in the tree", testTree.getNodeWithValue(99), null);
+
+        testTree.insert(18);
+        testTree.getNodeWithValue(15).setRChild(19);
+
+        assertEquals("Test looking up an inserted node", testTree.getNodeWithValue(18),
+                testTree.root().getrChild().getlChild());
+        assertEquals("Test looking up a node added with setRChild", testTree.getNodeWithValue(19),
+                testTree.getNodeWithValue(15).getrChild());
+
+        BinaryTree emptyTree = new BinaryTree();
+        assertEquals("Test looking up a value in an empty tree", emptyTree.getNodeWithValue(1), null);
+        emptyTree.insert(1);
+        assertEquals("Test looking up the root inserted into an empty tree", emptyTree.getNodeWithValue(1),
+                emptyTree.root());
+    }
+
+    @Test
+    public void testDegenerateTreeDoesNotOverflowStack() {
+        // a left-leaning chain deep enough to overflow a recursive walk on a default-sized stack
+        int depth = 100000;
+        BinaryTree testTree = new BinaryTree(0);
+        BinaryTreeNode cur = testTree.root();
+        for (int val = 1; val < depth; val++) {
+            cur.setLChild(val);
+            cur = cur.getlChild();
+        }
+
+        assertEquals("Test lca deep in a degenerate tree",
+                testTree.getLowestCommonAncestor(depth - 1, depth / 2).getVal(), depth / 2);
+        assertEquals("Test lca of a value not in the tree",
+                testTree.getLowestCommonAncestor(depth - 1, -1), null);
+        assertEquals("Test Euler-tour lca deep in a degenerate tree",
+                testTree.buildEulerTourIndex().getLowestCommonAncestor(depth - 1, depth / 2).getVal(), depth / 2);
+        assertEquals("Test binary-lifting lca deep in a degenerate tree",
+                testTree.ancestorIndex().getLowestCommonAncestor(depth - 1, depth / 2).getVal(), depth / 2);
+        assertEquals("Test batch lca deep in a degenerate tree",
+                testTree.getLowestCommonAncestors(new int[]{depth - 1}, new int[]{depth / 2})[0], depth / 2);
+        assertEquals("Test a tree can be built around a deep existing subtree",
+                new BinaryTree(testTree.root()).getNodeWithValue(depth - 1).getVal(), depth - 1);
+    }
+
+    @Test
+    public void testInsertKeepsLevelOrder() {
+        BinaryTree testTree = new BinaryTree();
+        for (int val = 0; val < 1000; val++) {
+            testTree.insert(val);
+        }
+
+        // level-order insertion gives heap order: the children of i are 2i+1 and 2i+2
+        for (int val = 0; 2 * val + 2 < 1000; val++) {
+            BinaryTreeNode node = testTree.getNodeWithValue(val);
+            assertEquals("Test the lchild of " + val + " follows heap order", node.getlChild().getVal(), 2 * val + 1);
+            assertEquals("Test the rchild of " + val + " follows heap order", node.getrChild().getVal(), 2 * val + 2);
+        }
+
+        // filling a gap out of order moves the next insert past it
+        testTree = new BinaryTree(1);
+        testTree.insert(2);
+        testTree.insert(3);
+        testTree.root().getrChild().setLChild(4);
+        testTree.insert(5);
+        testTree.insert(6);
+        testTree.insert(7);
+        testTree.insert(8);
+
+        assertEquals("Test insert fills the first free slot", testTree.root().getlChild().getlChild().getVal(), 5);
+        assertEquals("Test insert continues along the level", testTree.root().getlChild().getrChild().getVal(), 6);
+        assertEquals("Test insert skips the slot filled by setLChild", testTree.root().getrChild().getrChild().getVal(), 7);
+        assertEquals("Test insert moves on to the next level", testTree.root().getlChild().getlChild().getlChild().getVal(), 8);
+    }
+
+    @Test
+    public void testInsertAll() {
+        int[] vals = new int[100];
+        for (int i = 0; i < vals.length; i++) vals[i] = i;
+
+        BinaryTree bulkTree = new BinaryTree();
+        bulkTree.insertAll(vals);
+
+        BinaryTree insertedTree = new BinaryTree();
+        for (int val : vals) insertedTree.insert(val);
+
+        for (int val1 = 0; val1 < vals.length; val1 += 7) {
+            for (int val2 = 0; val2 < vals.length; val2 += 3) {
+                assertEquals("Test a bulk-built tree has the same shape as an inserted one",
+                        insertedTree.getLowestCommonAncestor(val1, val2).getVal(),
+                        bulkTree.getLowestCommonAncestor(val1, val2).getVal());
+            }
+        }
+
+        bulkTree.insertAll(new int[]{100, 101});
+        assertEquals("Test insertAll into a non-empty tree continues in level order",
+                bulkTree.getNodeWithValue(49).getrChild().getVal(), 100);
+        assertEquals("Test insertAll into a non-empty tree continues in level order",
+                bulkTree.getNodeWithValue(50).getlChild().getVal(), 101);
+    }
+
+    @Test
+    public void testImplicitTree() {
+        BinaryTree implicitTree = BinaryTree.implicit();
+        BinaryTree pointerTree = new BinaryTree();
+        for (int val = 1; val <= 200; val++) {
+            implicitTree.insert(val);
+            pointerTree.insert(val);
+        }
+
+        assertEquals("Test an implicit tree stays implicit while values are inserted", implicitTree.isImplicit(), true);
+
+        for (int val1 = 1; val1 <= 200; val1 += 3) {
+            for (int val2 = 1; val2 <= 200; val2 += 5) {
+                assertEquals("Test implicit lca matches the pointer tree for " + val1 + ", " + val2,
+                        pointerTree.getLowestCommonAncestor(val1, val2).getVal(),
+                        implicitTree.getLowestCommonAncestorValue(val1, val2));
+            }
+        }
+        assertEquals("Test implicit batch lca", implicitTree.getLowestCommonAncestors(new int[]{8, 4}, new int[]{9, 200})[1], 1);
+        assertEquals("Test implicit lca stays implicit", implicitTree.isImplicit(), true);
+
+        // handing out nodes gives views of the array, and the tree stays implicit
+        BinaryTreeNode root = implicitTree.root();
+        BinaryTreeNode lca = implicitTree.getLowestCommonAncestor(8, 9);
+        assertEquals("Test the views have the shape of the tree", root.getlChild().getrChild().getVal(), 5);
+        assertEquals("Test implicit node lca", lca.getVal(), 4);
+        assertEquals("Test a slot is always the same view", lca == implicitTree.getNodeWithValue(4), true);
+        assertEquals("Test handing out nodes keeps the tree implicit", implicitTree.isImplicit(), true);
+
+        // a child in the next free slot is an append, a taken slot is refused as before
+        assertEquals("Test a taken slot is refused", implicitTree.getNodeWithValue(100).setLChild(300), false);
+        assertEquals("Test the next free slot can be filled", implicitTree.getNodeWithValue(100).setRChild(201), true);
+        assertEquals("Test filling the next free slot keeps the tree implicit", implicitTree.isImplicit(), true);
+        assertEquals("Test lca of the appended node", implicitTree.getLowestCommonAncestorValue(201, 200), 100);
+
+        // any other child breaks completeness and switches to pointer storage, keeping the views
+        implicitTree.getNodeWithValue(200).setLChild(202);
+        assertEquals("Test an out of order child switches to pointer storage", implicitTree.isImplicit(), false);
+        assertEquals("Test the views become the nodes of the pointer tree", implicitTree.root() == root, true);
+        assertEquals("Test the linked tree keeps its shape", implicitTree.getNodeWithValue(4) == lca, true);
+        assertEquals("Test the new child hangs under its view", implicitTree.getNodeWithValue(200).getlChild().getVal(), 202);
+
+        assertEquals("Test lca after the tree is no longer complete",
+                implicitTree.getLowestCommonAncestorValue(202, 100), 100);
+        assertEquals("Test lca of the new node and another subtree",
+                implicitTree.getLowestCommonAncestorValue(201, 51), 25);
+
+        assertEquals("Test heap index arithmetic for a node and itself", BinaryTree.heapLowestCommonAncestor(6, 6), 6);
+        assertEquals("Test heap index arithmetic where one node is the ancestor", BinaryTree.heapLowestCommonAncestor(1, 9), 1);
+        assertEquals("Test heap index arithmetic across the root", BinaryTree.heapLowestCommonAncestor(3, 6), 0);
+    }
+
+    @Test
+    public void testImplicitTreeDuplicateValues() {
+        // 7 is at heap index 2 and at index 3, which comes first in preorder though not in level order
+        int[] vals = {1, 2, 7, 7, 5};
+        BinaryTree implicitTree = BinaryTree.implicit(vals);
+        BinaryTree pointerTree = new BinaryTree();
+        pointerTree.insertAll(vals);
+
+        assertEquals("Test duplicates resolve to the first in preorder in a pointer tree",
+                pointerTree.getLowestCommonAncestor(7, 5).getVal(), 2);
+        assertEquals("Test duplicates resolve the same way in an implicit tree",
+                implicitTree.getLowestCommonAncestorValue(7, 5), 2);
+        assertEquals("Test node lookup picks the same duplicate",
+                implicitTree.getNodeWithValue(7) == implicitTree.getNodeWithValue(2).getlChild(), true);
+        assertEquals("Test node lookup picks the same duplicate in a pointer tree",
+                pointerTree.getNodeWithValue(7) == pointerTree.getNodeWithValue(2).getlChild(), true);
+
+        assertEquals("Test heap preorder puts an ancestor first", BinaryTree.heapPreorderBefore(1, 4), true);
+        assertEquals("Test heap preorder puts a deeper left node before a shallower right one",
+                BinaryTree.heapPreorderBefore(3, 2), true);
+        assertEquals("Test heap preorder puts a right node after the left subtree",
+                BinaryTree.heapPreorderBefore(2, 6), true);
+        assertEquals("Test heap preorder puts a descendant after its ancestor",
+                BinaryTree.heapPreorderBefore(4, 1), false);
+    }
+
+    @Test(expected = java.util.NoSuchElementException.class)
+    public void testImplicitTreeMissingValue() {
+        BinaryTree.implicit(new int[]{1, 2, 3}).getLowestCommonAncestorValue(1, 4);
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        Path file = Files.createTempFile("lca", ".snapshot");
+        file.toFile().deleteOnExit();
+
+        BinaryTree testTree = LowestCommonAncestor.generateTestTree();
+        LcaSnapshot.save(testTree, testTree.buildEulerTourIndex(), file);
+
+        LcaSnapshot snapshot = LcaSnapshot.load(file);
+        BinaryTree loadedTree = snapshot.tree();
+        EulerTourIndex loadedIndex = snapshot.eulerTourIndex();
+
+        for (int val1 = 1; val1 <= 17; val1++) {
+            for (int val2 = 1; val2 <= 17; val2++) {
+                int expected = testTree.getLowestCommonAncestor(val1, val2).getVal();
+                assertEquals("Test loaded tree lca for " + val1 + ", " + val2,
+                        loadedTree.getLowestCommonAncestor(val1, val2).getVal(), expected);
+                assertEquals("Test loaded index lca for " + val1 + ", " + val2,
+                        loadedIndex.getLowestCommonAncestor(val1, val2).getVal(), expected);
+            }
+        }
+        assertEquals("Test loaded index hands out nodes of the loaded tree",
+                loadedIndex.getLowestCommonAncestor(15, 16), loadedTree.getNodeWithValue(10));
+
+        // negative and large values survive the varint encoding
+        BinaryTree implicitTree = BinaryTree.implicit(new int[]{-1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0, 300});
+        LcaSnapshot.save(implicitTree, file);
+        BinaryTree loadedImplicit = LcaSnapshot.load(file).tree();
+        assertEquals("Test an implicit tree loads as an implicit tree", loadedImplicit.isImplicit(), true);
+        assertEquals("Test loaded implicit lca", loadedImplicit.getLowestCommonAncestorValue(0, 300), Integer.MIN_VALUE);
+        assertEquals("Test loaded implicit lca across the root", loadedImplicit.getLowestCommonAncestorValue(300, Integer.MAX_VALUE), -1);
+
+        LcaSnapshot.save(new BinaryTree(), file);
+        assertEquals("Test an empty tree loads with a null root", LcaSnapshot.load(file).tree().root(), null);
+    }
+
+    @Test
+    public void testLcaCache() {
+        BinaryTree testTree = LowestCommonAncestor.generateTestTree();
+        LcaCache<BinaryTreeNode> cache = testTree.enableLcaCache(4);
+
+        assertEquals("Test a cold query", testTree.getLowestCommonAncestor(15, 16).getVal(), 10);
+        assertEquals("Test a repeated query", testTree.getLowestCommonAncestor(15, 16).getVal(), 10);
+        assertEquals("Test the reversed pair shares the entry", testTree.getLowestCommonAncestor(16, 15).getVal(), 10);
+        assertEquals("Test hits are counted", cache.hits(), 2L);
+        assertEquals("Test misses are counted", cache.misses(), 1L);
+
+        // adding a node empties the cache; the new 15 under 5 comes first in preorder
+        testTree.getNodeWithValue(5).setLChild(15);
+        assertEquals("Test the cache is cleared by a structural change", cache.size(), 0);
+        assertEquals("Test lca after the change", testTree.getLowestCommonAncestor(15, 16).getVal(), 1);
+
+        for (int val = 1; val <= 17; val++) {
+            testTree.getLowestCommonAncestor(val, 17);
+        }
+        assertEquals("Test the cache stays within its capacity", cache.size(), 4);
+        assertEquals("Test evictions are counted", cache.evictions(), 14L);
+        assertEquals("Test the most recent pair survives", cache.get(17, 17).getVal(), 17);
+        assertEquals("Test the least recent pair is evicted", cache.get(1, 17), null);
+    }
+
+    @Test
+    public void testLcaCacheEviction() {
+        LcaCache<Integer> cache = new LcaCache<>(64);
+        LinkedHashMap<Long, Integer> lru = new LinkedHashMap<Long, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                return size() > 64;
+            }
+        };
+
+        Random random = new Random(5);
+        for (int i = 0; i < 20000; i++) {
+            int val1 = random.nextInt(40) - 20;
+            int val2 = random.nextInt(40) - 20;
+            long key = LcaCache.key(val1, val2);
+            if (random.nextBoolean()) {
+                cache.put(val1, val2, i);
+                lru.put(key, i);
+            } else {
+                assertEquals("Test the cache matches an LRU map at step " + i, cache.get(val1, val2), lru.get(key));
+            }
+        }
+        assertEquals("Test the cache size matches an LRU map", cache.size(), lru.size());
+    }
+
+    @Test
+    public void testParallelEulerTourIndex() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BinaryTree complete = new BinaryTree();
+            int[] vals = new int[1000];
+            for (int i = 0; i < vals.length; i++) vals[i] = i;
+            complete.insertAll(vals);
+
+            // a long right spine with short left branches, so the forks go both ways
+            BinaryTree skewed = new BinaryTree(0);
+            BinaryTreeNode cur = skewed.root();
+            for (int i = 1; i < 600; i++) {
+                if (i % 7 == 0) cur.setLChild(-i);
+                cur.setRChild(i);
+                cur = cur.getrChild();
+            }
+
+            for (BinaryTree testTree : new BinaryTree[]{LowestCommonAncestor.generateTestTree(), complete, skewed}) {
+                EulerTourIndex serial = testTree.buildEulerTourIndex();
+                EulerTourIndex parallel = new ParallelIndexBuilder(pool, 4).eulerTourIndex(testTree.root());
+
+                assertEquals("Test the parallel tour matches", Arrays.equals(serial.euler, parallel.euler), true);
+                assertEquals("Test the parallel first positions match", Arrays.equals(serial.first, parallel.first), true);
+                assertEquals("Test the parallel tour depths match", Arrays.equals(serial.tourDepth, parallel.tourDepth), true);
+                assertEquals("Test the parallel sparse table matches", Arrays.deepEquals(serial.sparse, parallel.sparse), true);
+            }
+
+            assertEquals("Test lca through the tree's parallel build",
+                    LowestCommonAncestor.generateTestTree().buildEulerTourIndex(pool).getLowestCommonAncestor(15, 16).getVal(), 10);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testTraceListener() {
+        BinaryTree testTree = LowestCommonAncestor.generateTestTree();
+
+        // no listener means no console output
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(console));
+        try {
+            testTree.getLowestCommonAncestor(15, 16);
+        } finally {
+            System.setOut(stdout);
+        }
+        assertEquals("Test an untraced query prints nothing", console.size(), 0);
+
+        List<Integer> traced = new ArrayList<>();
+        testTree.setTraceListener(new LcaTraceListener() {
+            @Override
+            public void treePaths(int val1, List<BinaryTreeNode> path1, int val2, List<BinaryTreeNode> path2) {
+                traced.add(path1.size());
+                traced.add(path2.size());
+            }
+        });
+        assertEquals("Test lca with a listener", testTree.getLowestCommonAncestor(15, 16).getVal(), 10);
+        assertEquals("Test the listener sees both paths", traced, Arrays.asList(6, 5));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        testTree.setTraceListener(new ConsoleTraceListener(new PrintStream(out)));
+        testTree.getLowestCommonAncestor(15, 16);
+        assertEquals("Test the console trace", out.toString().replaceAll("\\s+", " ").trim(),
+                "PATH1: 1 9 10 11 14 15 PATH2: 1 9 10 12 16");
+
+        testTree.setTraceListener(null);
+        out.reset();
+        testTree.getLowestCommonAncestor(15, 16);
+        assertEquals("Test tracing can be turned off", out.size(), 0);
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        BinaryTree testTree = LowestCommonAncestor.generateTestTree();
+        LcaMetrics metrics = new LcaMetrics();
+        testTree.setMetrics(metrics);
+
+        assertEquals("Test lca with metrics", testTree.getLowestCommonAncestor(15, 16).getVal(), 10);
+        LcaMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals("Test the query is counted", snapshot.queryCount(), 1L);
+        assertEquals("Test the nodes both searches visited", snapshot.nodesVisited(), 30L);
+        assertEquals("Test the edges both searches followed", snapshot.edgesTraversed(), 28L);
+
+        testTree.enableLcaCache(8);
+        testTree.getLowestCommonAncestor(15, 16);
+        testTree.getLowestCommonAncestor(16, 15);
+        testTree.buildEulerTourIndex();
+        snapshot = metrics.snapshot();
+        assertEquals("Test cache misses are counted", snapshot.cacheMisses(), 1L);
+        assertEquals("Test cache hits are counted", snapshot.cacheHits(), 1L);
+        assertEquals("Test every query is counted", snapshot.queryCount(), 3L);
+        assertEquals("Test index builds are counted", snapshot.indexBuilds(), 1L);
+
+        // latencies 1..1000 ns: percentiles are exact below 8 and within 1/8 above
+        metrics.reset();
+        for (int latency = 1; latency <= 1000; latency++) {
+            metrics.recordQuery(latency, 0, 0);
+        }
+        snapshot = metrics.snapshot();
+        assertEquals("Test the mean latency", snapshot.meanLatencyNanos(), 500L);
+        assertEquals("Test the max latency", snapshot.maxLatencyNanos(), 1000L);
+        assertEquals("Test a low percentile is exact", snapshot.latencyPercentileNanos(0.5), 5L);
+        long p50 = snapshot.latencyPercentileNanos(50);
+        assertEquals("Test the median is within a bucket", p50 >= 500 && p50 <= 500 * 9 / 8, true);
+        assertEquals("Test the top percentile is the max", snapshot.latencyPercentileNanos(100), 1000L);
+
+        ObjectName name = metrics.register("lca:type=LcaMetrics,name=testMetrics");
+        try {
+            assertEquals("Test the MXBean reports the query count",
+                    ManagementFactory.getPlatformMBeanServer().getAttribute(name, "QueryCount"), 1000L);
+        } finally {
+            metrics.unregister(name);
+        }
+    }
+
+    @Test
+    public void testMultiNodeLca() {
+        BinaryTree testTree = LowestCommonAncestor.generateTestTree();
+        EulerTourIndex index = testTree.buildEulerTourIndex();
+
+        assertEquals("Test lca of 15, 16 and 17", testTree.getLowestCommonAncestor(15, 16, 17).getVal(), 10);
+        assertEquals("Test lca of 5, 7 and 8", testTree.getLowestCommonAncestor(5, 7, 8).getVal(), 2);
+        assertEquals("Test lca of 15, 16 and 7", testTree.getLowestCommonAncestor(15, 16, 7).getVal(), 1);
+        assertEquals("Test lca of 11, 13 and 15", testTree.getLowestCommonAncestor(11, 13, 15).getVal(), 11);
+        assertEquals("Test lca of one value", testTree.getLowestCommonAncestor(new int[]{14}).getVal(), 14);
+        assertEquals("Test lca with a missing value", testTree.getLowestCommonAncestor(15, 16, 99), null);
+
+        assertEquals("Test index lca of 15, 16 and 17", index.getLowestCommonAncestor(15, 16, 17).getVal(), 10);
+        assertEquals("Test index lca of 5, 7 and 8", index.getLowestCommonAncestor(5, 7, 8).getVal(), 2);
+        assertEquals("Test index lca with a missing value", index.getLowestCommonAncestor(15, 16, 99), null);
+
+        // random sets in a larger tree agree with chained pairwise queries
+        BinaryTree complete = new BinaryTree();
+        int[] vals = new int[1000];
+        for (int i = 0; i < vals.length; i++) vals[i] = i;
+        complete.insertAll(vals);
+        EulerTourIndex completeIndex = complete.buildEulerTourIndex();
+        Random random = new Random(31);
+        for (int q = 0; q < 200; q++) {
+            int[] set = new int[1 + random.nextInt(6)];
+            int chained = -1;
+            for (int i = 0; i < set.length; i++) {
+                set[i] = random.nextInt(vals.length);
+                chained = i == 0 ? set[i] : completeIndex.getLowestCommonAncestor(chained, set[i]).getVal();
+            }
+            assertEquals("Test set lca " + Arrays.toString(set), complete.getLowestCommonAncestor(set).getVal(), chained);
+            assertEquals("Test index set lca " + Arrays.toString(set), completeIndex.getLowestCommonAncestor(set).getVal(), chained);
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,264 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+// A CompactDag stored in a file and read through a memory mapping, for graphs that should not
+// live on the Java heap. Opening one maps the file and reads its header, nothing more: the
+// operating system pages adjacency in as queries touch it, and several processes opening the
+// same file share one copy in the page cache.
+//
+// The file is little-endian and every section is a flat array:
+//
+//   header           16 ints: magic, version, node count, edge count, flags, closure words
+//   vals             n ints
+//   childOffsets     n + 1 ints, then childTargets, e ints
+//   parentOffsets    n + 1 ints, then parentTargets, e ints
+//   sortedVals       n ints, the values in ascending order (ties by id)
+//   sortedIds        n ints, the id holding each entry of sortedVals
+//   closure          optional, n rows of closure-words longs, 8-byte aligned
+//
+// Value lookups binary search sortedVals, so there is no hash table to rebuild on open. The
+// optional closure holds TransitiveClosureIndex's descendant rows and backs reachabilityIndex().
+//
+// getLCAs runs the same reverse BFS as DagLcaEngine straight against the mapping; the graph adds
+// nothing to the heap, and each querying thread keeps the usual O(V) ints of DagScratch.
+public final class MappedDag implements DagView {
+
+    private static final int MAGIC = 0x4C434744;   // "LCGD"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int FLAG_CLOSURE = 1;
+
+    private final MappedRegion region;
+    private final int n;
+    private final int e;
+    private final int closureWords;
+
+    private final long valsAt;
+    private final long childOffsetsAt;
+    private final long childTargetsAt;
+    private final long parentOffsetsAt;
+    private final long parentTargetsAt;
+    private final long sortedValsAt;
+    private final long sortedIdsAt;
+    private final long closureAt;
+
+    private MappedDag(MappedRegion region) throws IOException {
+        this.region = region;
+        if (region.length() < HEADER_BYTES || region.getInt(0) != MAGIC) {
+            throw new IOException("Not a mapped DAG file");
+        }
+        if (region.getInt(4) != VERSION) {
+            throw new IOException("Unsupported mapped DAG version " + region.getInt(4));
+        }
+
+        n = region.getInt(8);
+        e = region.getInt(12);
+        boolean hasClosure = (region.getInt(16) & FLAG_CLOSURE) != 0;
+        closureWords = hasClosure ? region.getInt(20) : 0;
+
+        valsAt = HEADER_BYTES;
+        childOffsetsAt = valsAt + 4L * n;
+        childTargetsAt = childOffsetsAt + 4L * (n + 1);
+        parentOffsetsAt = childTargetsAt + 4L * e;
+        parentTargetsAt = parentOffsetsAt + 4L * (n + 1);
+        sortedValsAt = parentTargetsAt + 4L * e;
+        sortedIdsAt = sortedValsAt + 4L * n;
+        closureAt = align8(sortedIdsAt + 4L * n);
+
+        long expected = hasClosure ? closureAt + 8L * n * closureWords : sortedIdsAt + 4L * n;
+        if (region.length() < expected) {
+            throw new IOException("Mapped DAG file is truncated: " + region.length() + " of " + expected + " bytes");
+        }
+    }
+
+    public static MappedDag open(Path file) throws IOException {
+        return open(file, MappedRegion.DEFAULT_CHUNK_SHIFT);
+    }
+
+    // smaller chunks let tests cross chunk boundaries without gigabyte files
+    static MappedDag open(Path file, int chunkShift) throws IOException {
+        // the mapping stays valid after the channel is closed
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return new MappedDag(new MappedRegion(channel, chunkShift));
+        }
+    }
+
+    public static void write(CompactDag graph, Path file) throws IOException {
+        write(graph, null, file);
+    }
+
+    // Writes graph to file, replacing it. With a closure of the same graph the file also carries
+    // its descendant rows, so an opened MappedDag answers reachability without searching.
+    public static void write(CompactDag graph, TransitiveClosureIndex closure, Path file) throws IOException {
+        int n = graph.size();
+        int words = (n + 63) >>> 6;
+        if (closure != null && closure.size() != n) {
+            throw new IllegalArgumentException("Closure covers " + closure.size() + " nodes, graph has " + n);
+        }
+
+        long[] byValue = new long[n];
+        for (int id = 0; id < n; id++) {
+            byValue[id] = ((long) graph.vals[id] << 32) | id;
+        }
+        Arrays.sort(byValue);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(n).putInt(graph.edgeCount())
+                    .putInt(closure != null ? FLAG_CLOSURE : 0).putInt(closure != null ? words : 0);
+            while (buffer.position() < HEADER_BYTES) {
+                buffer.putInt(0);
+            }
+
+            putInts(channel, buffer, graph.vals);
+            putInts(channel, buffer, graph.childOffsets);
+            putInts(channel, buffer, graph.childTargets);
+            putInts(channel, buffer, graph.parentOffsets);
+            putInts(channel, buffer, graph.parentTargets);
+            for (long entry : byValue) {
+                putInt(channel, buffer, (int) (entry >> 32));
+            }
+            for (long entry : byValue) {
+                putInt(channel, buffer, (int) entry);
+            }
+
+            if (closure != null) {
+                long written = channel.position() + buffer.position();
+                if (written != align8(written)) {
+                    putInt(channel, buffer, 0);
+                }
+                for (int id = 0; id < n; id++) {
+                    for (long word : closure.descendantBits(id)) {
+                        if (buffer.remaining() < 8) flush(channel, buffer);
+                        buffer.putLong(word);
+                    }
+                }
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    @Override
+    public int size() {
+        return n;
+    }
+
+    @Override
+    public int edgeCount() {
+        return e;
+    }
+
+    @Override
+    public int value(int id) {
+        return region.getInt(valsAt + 4L * id);
+    }
+
+    // returns the id of the first node holding val, or -1 if there is none
+    @Override
+    public int idOf(int val) {
+        int lo = 0;
+        int hi = n;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (region.getInt(sortedValsAt + 4L * mid) < val) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == n || region.getInt(sortedValsAt + 4L * lo) != val) return -1;
+        return region.getInt(sortedIdsAt + 4L * lo);
+    }
+
+    @Override
+    public int childStart(int id) {
+        return region.getInt(childOffsetsAt + 4L * id);
+    }
+
+    @Override
+    public int childEnd(int id) {
+        return region.getInt(childOffsetsAt + 4L * (id + 1));
+    }
+
+    @Override
+    public int childAt(int id, int index) {
+        return region.getInt(childTargetsAt + 4L * index);
+    }
+
+    @Override
+    public int parentStart(int id) {
+        return region.getInt(parentOffsetsAt + 4L * id);
+    }
+
+    @Override
+    public int parentEnd(int id) {
+        return region.getInt(parentOffsetsAt + 4L * (id + 1));
+    }
+
+    @Override
+    public int parentAt(int id, int index) {
+        return region.getInt(parentTargetsAt + 4L * index);
+    }
+
+    // Ids of the LCAs of two node ids, with the same semantics as DirectedAcyclicGraph.getLCAs
+    public int[] getLCAs(int id1, int id2) {
+        return DagLcaEngine.lowestCommonAncestorIds(this, id1, id2);
+    }
+
+    public int[] getLCAs(int... ids) {
+        return DagLcaEngine.lowestCommonAncestorIds(this, ids);
+    }
+
+    public boolean hasReachabilityIndex() {
+        return closureWords != 0;
+    }
+
+    // The stored closure as a ReachabilityIndex, or null if the file was written without one
+    public ReachabilityIndex reachabilityIndex() {
+        if (closureWords == 0) return null;
+
+        return new ReachabilityIndex() {
+            @Override
+            public boolean isAncestor(int ancestorId, int descendantId) {
+                long word = region.getLong(closureAt + 8L * ((long) ancestorId * closureWords + (descendantId >>> 6)));
+                return (word & (1L << descendantId)) != 0;
+            }
+
+            // the rows live in the mapping, not on the heap
+            @Override
+            public long memoryBytes() {
+                return 0;
+            }
+        };
+    }
+
+    private static long align8(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    private static void putInts(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+        for (int value : values) {
+            putInt(channel, buffer, value);
+        }
+    }
+
+    private static void putInt(FileChannel channel, ByteBuffer buffer, int value) throws IOException {
+        if (buffer.remaining() < 4) flush(channel, buffer);
+        buffer.putInt(value);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,46 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+// Read-only memory mapping of a whole file, split into chunks because a single MappedByteBuffer
+// cannot address more than 2GB. Chunks are a power of two long and every value in the files this
+// reads is aligned to its own size, so no int or long straddles two chunks.
+//
+// Reads use the absolute get methods only, so one region can be shared between threads.
+final class MappedRegion {
+
+    static final int DEFAULT_CHUNK_SHIFT = 30;
+
+    private final ByteBuffer[] chunks;
+    private final int chunkShift;
+    private final long chunkMask;
+    private final long length;
+
+    MappedRegion(FileChannel channel, int chunkShift) throws IOException {
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1L << chunkShift) - 1;
+        this.length = channel.size();
+
+        int count = (int) ((length + chunkMask) >>> chunkShift);
+        chunks = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long position = (long) i << chunkShift;
+            long size = Math.min(1L << chunkShift, length - position);
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, size)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    long length() {
+        return length;
+    }
+
+    int getInt(long offset) {
+        return chunks[(int) (offset >>> chunkShift)].getInt((int) (offset & chunkMask));
+    }
+
+    long getLong(long offset) {
+        return chunks[(int) (offset >>> chunkShift)].getLong((int) (offset & chunkMask));
+    }
+}
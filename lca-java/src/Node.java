@@ -1,4 +1,5 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class Node {
 
@@ -10,6 +11,9 @@ public class Node {
     private Color color;
     private ArrayList<Node> children;
     private ArrayList<Node> parents;
+    // graphs listing this node, told about its new children: null, one DirectedAcyclicGraph, or a
+    // DirectedAcyclicGraph[] in the rare case the node is listed by several
+    private Object graphs;
 
 
     public Node(int val, ArrayList<Node> children, ArrayList<Node> parents) {
@@ -26,6 +30,8 @@ public class Node {
         }
     }
 
+    // Edges added to this list directly, rather than through addChild, are not seen by the
+    // graphs' cached indexes until DirectedAcyclicGraph.edgesChanged is called
     public ArrayList<Node> getChildren() {
         return children;
     }
@@ -46,14 +52,51 @@ public class Node {
         return false;
     }
 
+    // Returns false if child is null or already a child, or if a graph listing this node keeps an
+    // incremental index and the edge would close a cycle
     public boolean addChild(Node child) {
         if (child != null && !children.contains(child)) {
+            if (graphs instanceof DirectedAcyclicGraph) {
+                if (!((DirectedAcyclicGraph) graphs).acceptsChild(this, child)) return false;
+            } else if (graphs != null) {
+                for (DirectedAcyclicGraph graph : (DirectedAcyclicGraph[]) graphs) {
+                    if (!graph.acceptsChild(this, child)) return false;
+                }
+            }
+
             children.add(child);
+
+            if (graphs instanceof DirectedAcyclicGraph) {
+                ((DirectedAcyclicGraph) graphs).childAdded(this, child);
+            } else if (graphs != null) {
+                for (DirectedAcyclicGraph graph : (DirectedAcyclicGraph[]) graphs) {
+                    graph.childAdded(this, child);
+                }
+            }
             return true;
         }
         return false;
     }
 
+    // Called by a graph whose node list holds this node; adding the same graph again does nothing
+    void addGraph(DirectedAcyclicGraph graph) {
+        if (graphs == null) {
+            graphs = graph;
+        } else if (graphs instanceof DirectedAcyclicGraph) {
+            if (graphs != graph) {
+                graphs = new DirectedAcyclicGraph[]{(DirectedAcyclicGraph) graphs, graph};
+            }
+        } else {
+            DirectedAcyclicGraph[] known = (DirectedAcyclicGraph[]) graphs;
+            for (DirectedAcyclicGraph g : known) {
+                if (g == graph) return;
+            }
+            DirectedAcyclicGraph[] more = Arrays.copyOf(known, known.length + 1);
+            more[known.length] = graph;
+            graphs = more;
+        }
+    }
+
     public String getColor() {
         if (color == Color.RED) return "red";
         if (color == Color.BLUE) return "blue";
@@ -0,0 +1,100 @@
+import java.util.Arrays;
+
+// Open-addressing K -> int map for ObjectKeyDictionary and BinaryLiftingIndex. Keys sit in one
+// Object[] and ids in a parallel int[], so a mapping costs no Integer or entry object. Keys are
+// compared with equals and must not be null; get() returns -1 for a missing key.
+public class ObjectIntHashMap<K> {
+
+    private static final int MISSING = -1;
+
+    private Object[] keys;      // null marks a free slot
+    private int[] values;
+    private int size;
+    private int mask;
+
+    public ObjectIntHashMap() {
+        this(16);
+    }
+
+    public ObjectIntHashMap(int expectedSize) {
+        allocate(IntIntHashMap.capacityFor(expectedSize));
+    }
+
+    private void allocate(int capacity) {
+        keys = new Object[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(K key) {
+        int slot = slotOf(key);
+        return keys[slot] != null ? values[slot] : MISSING;
+    }
+
+    public boolean containsKey(K key) {
+        return keys[slotOf(key)] != null;
+    }
+
+    public void put(K key, int value) {
+        int slot = slotOf(key);
+        if (keys[slot] == null) {
+            insertAt(slot, key, value);
+        } else {
+            values[slot] = value;
+        }
+    }
+
+    public boolean putIfAbsent(K key, int value) {
+        int slot = slotOf(key);
+        if (keys[slot] != null) return false;
+
+        insertAt(slot, key, value);
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    private void insertAt(int slot, K key, int value) {
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+
+        if (size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    private int slotOf(Object key) {
+        if (key == null) {
+            throw new NullPointerException("Null keys are not supported");
+        }
+        int slot = IntIntHashMap.mix(key.hashCode()) & mask;
+        while (keys[slot] != null && !keys[slot].equals(key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        Object[] oldKeys = keys;
+        int[] oldValues = values;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                size++;
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+import java.util.Arrays;
+
+// KeyDictionary for any key type with equals and hashCode: ids in an ObjectIntHashMap, keys by id
+// in an Object[]. Keys must not be null.
+public class ObjectKeyDictionary<K> implements KeyDictionary<K> {
+
+    private final ObjectIntHashMap<K> idOfKey;
+    private Object[] keys;
+    private int size;
+
+    public ObjectKeyDictionary() {
+        this(16);
+    }
+
+    public ObjectKeyDictionary(int expectedSize) {
+        idOfKey = new ObjectIntHashMap<>(expectedSize);
+        keys = new Object[Math.max(16, expectedSize)];
+    }
+
+    @Override
+    public int add(K key) {
+        int id = idOfKey.get(key);
+        if (id != -1) return id;
+
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        keys[size] = key;
+        idOfKey.put(key, size);
+        return size++;
+    }
+
+    @Override
+    public int idOf(K key) {
+        return idOfKey.get(key);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public K keyOf(int id) {
+        if (id < 0 || id >= size) {
+            throw new IllegalArgumentException("No key with id " + id);
+        }
+        return (K) keys[id];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,348 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Builds the LCA and reachability indexes on a ForkJoinPool. Every index comes out identical to
+// the one the single-threaded constructors build.
+//
+// EulerTourIndex: ids are preorder, so a subtree is a contiguous id range, and once subtree sizes
+// are known each node's tour positions follow from its parent's (a subtree of s nodes spans
+// 2s - 1 tour entries). Subtrees are filled as separate tasks; the larger child is continued in
+// the same task and only the smaller one forked, which keeps task nesting logarithmic even on
+// path-like trees. The sparse table is built level by level, each level split into ranges.
+//
+// CompactDag: the topological order is Kahn's algorithm run level-synchronously. Each round
+// releases the children of the current frontier in parallel; the next frontier is then sorted by
+// (position of the parent that released it last, index among that parent's children), which is
+// exactly the order the serial queue would have seen them in. The rounds are also the closure's
+// schedule: children always sit in a later round than their parents, so the transitive closure
+// is filled round by round from the last, with the rows of one round built in parallel.
+//
+// The flattening of a pointer tree into preorder arrays (FlatTree) and subtree sizes are single
+// linear passes and stay serial.
+public class ParallelIndexBuilder {
+
+    private static final int DEFAULT_GRAIN = 1 << 13;
+
+    private final ForkJoinPool pool;
+    private final int grain;    // work below this many items runs as one task
+
+    public ParallelIndexBuilder() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ParallelIndexBuilder(ForkJoinPool pool) {
+        this(pool, DEFAULT_GRAIN);
+    }
+
+    // small grains let tests split small inputs
+    ParallelIndexBuilder(ForkJoinPool pool, int grain) {
+        this.pool = pool;
+        this.grain = grain;
+    }
+
+    /* Trees ------------------- */
+
+    public EulerTourIndex eulerTourIndex(BinaryTreeNode root) {
+        return eulerTourIndex(new FlatTree(root));
+    }
+
+    public EulerTourIndex eulerTourIndex(FlatTree tree) {
+        int n = tree.size();
+        int tourLength = n == 0 ? 0 : 2 * n - 1;
+
+        int[] size = new int[n];
+        for (int v = n - 1; v >= 0; v--) {
+            size[v] = 1;
+            if (tree.lChild[v] != -1) size[v] += size[tree.lChild[v]];
+            if (tree.rChild[v] != -1) size[v] += size[tree.rChild[v]];
+        }
+
+        int[] euler = new int[tourLength];
+        int[] first = new int[n];
+        if (n > 0) {
+            pool.invoke(new TourTask(tree, size, euler, first, 0));
+        }
+
+        int[] tourDepth = new int[tourLength];
+        forRange(0, tourLength, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                tourDepth[i] = tree.depth[euler[i]];
+            }
+        });
+
+        return new EulerTourIndex(tree, euler, tourDepth, first, sparseTable(tourDepth));
+    }
+
+    // same table as EulerTourIndex builds, each level filled in parallel ranges
+    private int[][] sparseTable(int[] depths) {
+        int m = depths.length;
+        int levels = m == 0 ? 1 : 32 - Integer.numberOfLeadingZeros(m);
+
+        int[][] table = new int[levels][];
+        int[] base = new int[m];
+        forRange(0, m, (from, to) -> {
+            for (int i = from; i < to; i++) {
+                base[i] = i;
+            }
+        });
+        table[0] = base;
+
+        for (int k = 1; k < levels; k++) {
+            int half = 1 << (k - 1);
+            int[] prev = table[k - 1];
+            int[] cur = new int[m - (1 << k) + 1];
+
+            forRange(0, cur.length, (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    int a = prev[i];
+                    int b = prev[i + half];
+                    cur[i] = depths[b] < depths[a] ? b : a;
+                }
+            });
+            table[k] = cur;
+        }
+        return table;
+    }
+
+    // fills the tour entries of the subtree rooted at v, whose first position is already set
+    @SuppressWarnings("serial")
+    private final class TourTask extends RecursiveAction {
+
+        private final FlatTree tree;
+        private final int[] size;
+        private final int[] euler;
+        private final int[] first;
+        private final int root;
+
+        TourTask(FlatTree tree, int[] size, int[] euler, int[] first, int root) {
+            this.tree = tree;
+            this.size = size;
+            this.euler = euler;
+            this.first = first;
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            ArrayList<TourTask> forked = new ArrayList<>();
+            int v = root;
+
+            while (v != -1 && size[v] > grain) {
+                visit(v);
+                int l = tree.lChild[v];
+                int r = tree.rChild[v];
+                int big = l == -1 || (r != -1 && size[r] > size[l]) ? r : l;
+                int small = big == l ? r : l;
+
+                if (small != -1) {
+                    if (size[small] > grain) {
+                        TourTask task = new TourTask(tree, size, euler, first, small);
+                        task.fork();
+                        forked.add(task);
+                    } else {
+                        visitRange(small);
+                    }
+                }
+                v = big;
+            }
+            if (v != -1) {
+                visitRange(v);
+            }
+
+            for (TourTask task : forked) {
+                task.join();
+            }
+        }
+
+        // children have larger preorder ids than their parent and stay inside its range
+        private void visitRange(int v) {
+            for (int id = v; id < v + size[v]; id++) {
+                visit(id);
+            }
+        }
+
+        // writes v's own tour entries and the first positions of its children
+        private void visit(int v) {
+            int pos = first[v];
+            euler[pos++] = v;
+
+            int l = tree.lChild[v];
+            if (l != -1) {
+                first[l] = pos;
+                pos += 2 * size[l] - 1;
+                euler[pos++] = v;
+            }
+            int r = tree.rChild[v];
+            if (r != -1) {
+                first[r] = pos;
+                pos += 2 * size[r] - 1;
+                euler[pos] = v;
+            }
+        }
+    }
+
+    /* DAGs -------------------- */
+
+    // Same order as CompactDag.topologicalOrder. Throws IllegalStateException on a cycle.
+    public int[] topologicalOrder(CompactDag graph) {
+        return new Rounds(graph).order;
+    }
+
+    public TransitiveClosureIndex transitiveClosure(CompactDag graph) {
+        Rounds rounds = new Rounds(graph);
+        int n = graph.size();
+        int words = (n + 63) >>> 6;
+        long[][] rows = new long[n][];
+
+        for (int round = rounds.roundStart.length - 2; round >= 0; round--) {
+            forRange(rounds.roundStart[round], rounds.roundStart[round + 1], (from, to) -> {
+                for (int i = from; i < to; i++) {
+                    int v = rounds.order[i];
+                    long[] row = new long[words];
+                    for (int j = graph.childOffsets[v]; j < graph.childOffsets[v + 1]; j++) {
+                        int child = graph.childTargets[j];
+                        long[] childRow = rows[child];
+                        for (int w = 0; w < words; w++) {
+                            row[w] |= childRow[w];
+                        }
+                        row[child >>> 6] |= 1L << child;
+                    }
+                    rows[v] = row;
+                }
+            });
+        }
+        return new TransitiveClosureIndex(rows);
+    }
+
+    // Chooses between a parallel transitive closure and interval labels the same way as
+    // ReachabilityIndex.build
+    public ReachabilityIndex reachabilityIndex(CompactDag graph, long memoryBudgetBytes) {
+        if (TransitiveClosureIndex.memoryBytes(graph.size()) <= memoryBudgetBytes) {
+            return transitiveClosure(graph);
+        }
+        return ReachabilityIndex.build(graph, memoryBudgetBytes);
+    }
+
+    // Level-synchronous Kahn: order holds the serial topological order, and round r is the slice
+    // [roundStart[r], roundStart[r + 1])
+    private final class Rounds {
+
+        final int[] order;
+        final int[] roundStart;
+
+        Rounds(CompactDag graph) {
+            int n = graph.size();
+            order = new int[n];
+            AtomicIntegerArray inDegree = new AtomicIntegerArray(n);
+            AtomicLongArray releasedBy = new AtomicLongArray(n);
+            int[] released = new int[n];
+            AtomicInteger releasedCount = new AtomicInteger();
+            long[] keys = new long[n];
+            int[] starts = new int[16];
+            int rounds = 0;
+
+            int tail = 0;
+            for (int v = 0; v < n; v++) {
+                int degree = graph.parentOffsets[v + 1] - graph.parentOffsets[v];
+                inDegree.set(v, degree);
+                if (degree == 0) order[tail++] = v;
+            }
+
+            int head = 0;
+            while (head < tail) {
+                if (rounds + 2 > starts.length) starts = Arrays.copyOf(starts, starts.length * 2);
+                starts[rounds++] = head;
+                releasedCount.set(0);
+
+                // a child is released by the last of its parents to run in serial order, which is
+                // the parent with the largest position; keep (position, child index) of that one
+                forRange(head, tail, (from, to) -> {
+                    for (int i = from; i < to; i++) {
+                        int v = order[i];
+                        for (int j = graph.childOffsets[v]; j < graph.childOffsets[v + 1]; j++) {
+                            int child = graph.childTargets[j];
+                            releasedBy.accumulateAndGet(child, (long) i << 32 | (j - graph.childOffsets[v]), Math::max);
+                            if (inDegree.decrementAndGet(child) == 0) {
+                                released[releasedCount.getAndIncrement()] = child;
+                            }
+                        }
+                    }
+                });
+
+                int count = releasedCount.get();
+                for (int k = 0; k < count; k++) {
+                    keys[k] = releasedBy.get(released[k]);
+                }
+                if (count > grain) {
+                    Arrays.parallelSort(keys, 0, count);
+                } else {
+                    Arrays.sort(keys, 0, count);
+                }
+
+                head = tail;
+                for (int k = 0; k < count; k++) {
+                    int v = order[(int) (keys[k] >>> 32)];
+                    order[tail++] = graph.childTargets[graph.childOffsets[v] + (int) keys[k]];
+                }
+            }
+            starts[rounds] = head;
+
+            if (tail != n) {
+                throw new IllegalStateException("Graph contains a cycle; " + (n - tail) + " nodes cannot be ordered");
+            }
+            roundStart = Arrays.copyOf(starts, rounds + 1);
+        }
+    }
+
+    /* ------------------------- */
+
+    interface RangeBody {
+        void run(int from, int to);
+    }
+
+    // runs body over [from, to) in chunks of about grain on the pool
+    private void forRange(int from, int to, RangeBody body) {
+        forRange(pool, from, to, grain, body);
+    }
+
+    // shared with DagBulkLca, which splits its own loops the same way
+    static void forRange(ForkJoinPool pool, int from, int to, int grain, RangeBody body) {
+        if (to - from <= grain) {
+            body.run(from, to);
+        } else {
+            pool.invoke(new RangeTask(from, to, grain, body));
+        }
+    }
+
+    @SuppressWarnings("serial")
+    private static final class RangeTask extends RecursiveAction {
+
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final RangeBody body;
+
+        RangeTask(int from, int to, int grain, RangeBody body) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.body = body;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                body.run(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            ForkJoinTask.invokeAll(new RangeTask(from, mid, grain, body), new RangeTask(mid, to, grain, body));
+        }
+    }
+}
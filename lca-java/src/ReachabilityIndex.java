@@ -0,0 +1,29 @@
+// Answers "is u a (strict) ancestor of v?" on a CompactDag without a fresh BFS per question.
+//
+// build() picks a scheme from the size of the graph and a memory budget: a full transitive
+// closure when one bit per node pair fits, and interval labels (GRAIL) otherwise.
+public interface ReachabilityIndex {
+
+    long DEFAULT_MEMORY_BUDGET = 256L * 1024 * 1024;
+
+    // true if there is a non-empty path from ancestorId down to descendantId
+    boolean isAncestor(int ancestorId, int descendantId);
+
+    // approximate heap used by the index, in bytes
+    long memoryBytes();
+
+    static ReachabilityIndex build(CompactDag graph) {
+        return build(graph, DEFAULT_MEMORY_BUDGET);
+    }
+
+    static ReachabilityIndex build(CompactDag graph, long memoryBudgetBytes) {
+        if (TransitiveClosureIndex.memoryBytes(graph.size()) <= memoryBudgetBytes) {
+            return new TransitiveClosureIndex(graph);
+        }
+
+        long perDimension = IntervalReachabilityIndex.memoryBytesPerDimension(graph.size());
+        int dimensions = (int) Math.max(1, Math.min(IntervalReachabilityIndex.MAX_DIMENSIONS,
+                memoryBudgetBytes / Math.max(1, perDimension)));
+        return new IntervalReachabilityIndex(graph, dimensions);
+    }
+}
@@ -0,0 +1,144 @@
+import java.util.NoSuchElementException;
+
+// Tarjan's offline LCA: answers a whole batch of queries with one postorder walk of the tree.
+// Every finished subtree is unioned into its parent's set, and the set's representative points
+// at the deepest node whose walk is still open; a query whose other endpoint is already finished
+// is answered by that pointer. Path compression plus union by size keeps the batch at
+// O((n + q) * alpha(n)).
+public class TarjanOfflineLca {
+
+    private TarjanOfflineLca() {
+    }
+
+    // Returns the value of the lca of (vals1[i], vals2[i]) for each i
+    public static int[] lowestCommonAncestors(FlatTree tree, int[] vals1, int[] vals2) {
+        if (vals1.length != vals2.length) {
+            throw new IllegalArgumentException("Query arrays differ in length: "
+                    + vals1.length + " and " + vals2.length);
+        }
+
+        int n = tree.size();
+        int q = vals1.length;
+        int[] answers = new int[q];
+        if (q == 0) return answers;
+
+        // bucket query indices by endpoint id (compressed rows: queriesOf[offsets[v] .. offsets[v+1]))
+        int[] ids1 = resolve(tree, vals1);
+        int[] ids2 = resolve(tree, vals2);
+        int[] offsets = new int[n + 1];
+        for (int i = 0; i < q; i++) {
+            offsets[ids1[i] + 1]++;
+            offsets[ids2[i] + 1]++;
+        }
+        for (int v = 0; v < n; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] fill = offsets.clone();
+        int[] queriesOf = new int[2 * q];
+        for (int i = 0; i < q; i++) {
+            queriesOf[fill[ids1[i]]++] = i;
+            queriesOf[fill[ids2[i]]++] = i;
+        }
+
+        int[] setParent = new int[n];
+        int[] setSize = new int[n];
+        int[] ancestor = new int[n];
+        boolean[] finished = new boolean[n];
+
+        // state[v]: 0 = left child not visited yet, 1 = right child not visited yet, 2 = done
+        int[] stack = new int[n];
+        byte[] state = new byte[n];
+        int top = 0;
+
+        stack[top++] = 0;
+        makeSet(0, setParent, setSize, ancestor);
+
+        while (top > 0) {
+            int v = stack[top - 1];
+
+            if (state[v] == 0) {
+                state[v] = 1;
+                int l = tree.lChild[v];
+                if (l != -1) {
+                    makeSet(l, setParent, setSize, ancestor);
+                    stack[top++] = l;
+                    continue;
+                }
+            }
+            if (state[v] == 1) {
+                state[v] = 2;
+                int r = tree.rChild[v];
+                if (r != -1) {
+                    makeSet(r, setParent, setSize, ancestor);
+                    stack[top++] = r;
+                    continue;
+                }
+            }
+
+            // v's subtree is done: answer the queries it closes, then fold it into its parent
+            top--;
+            finished[v] = true;
+            for (int j = offsets[v]; j < offsets[v + 1]; j++) {
+                int query = queriesOf[j];
+                int other = ids1[query] == v ? ids2[query] : ids1[query];
+                if (finished[other]) {
+                    answers[query] = tree.vals[ancestor[find(other, setParent)]];
+                }
+            }
+
+            int p = tree.parent[v];
+            if (p != -1) {
+                int root = union(p, v, setParent, setSize);
+                ancestor[root] = p;
+            }
+        }
+
+        return answers;
+    }
+
+    private static int[] resolve(FlatTree tree, int[] vals) {
+        int[] ids = new int[vals.length];
+        for (int i = 0; i < vals.length; i++) {
+            ids[i] = tree.idOf(vals[i]);
+            if (ids[i] == -1) {
+                throw new NoSuchElementException("No node with value " + vals[i]);
+            }
+        }
+        return ids;
+    }
+
+    private static void makeSet(int v, int[] setParent, int[] setSize, int[] ancestor) {
+        setParent[v] = v;
+        setSize[v] = 1;
+        ancestor[v] = v;
+    }
+
+    private static int find(int v, int[] setParent) {
+        int root = v;
+        while (setParent[root] != root) {
+            root = setParent[root];
+        }
+        // second pass compresses the path onto the root
+        while (setParent[v] != root) {
+            int next = setParent[v];
+            setParent[v] = root;
+            v = next;
+        }
+        return root;
+    }
+
+    private static int union(int a, int b, int[] setParent, int[] setSize) {
+        a = find(a, setParent);
+        b = find(b, setParent);
+        if (a == b) return a;
+
+        if (setSize[a] < setSize[b]) {
+            int tmp = a;
+            a = b;
+            b = tmp;
+        }
+        setParent[b] = a;
+        setSize[a] += setSize[b];
+        return a;
+    }
+}
@@ -0,0 +1,61 @@
+// Reachability as a bit matrix: row v has bit d set when d is a descendant of v. Rows are filled
+// in reverse topological order, so each one is the OR of its children's finished rows plus the
+// children themselves. O(1) queries for n^2 / 8 bytes; meant for small and medium graphs.
+public class TransitiveClosureIndex implements ReachabilityIndex {
+
+    private final long[][] descendants;
+
+    public TransitiveClosureIndex(CompactDag graph) {
+        int n = graph.size();
+        int words = words(n);
+        int[] order = graph.topologicalOrder();
+
+        descendants = new long[n][];
+        for (int i = n - 1; i >= 0; i--) {
+            int v = order[i];
+            long[] row = new long[words];
+
+            for (int j = graph.childOffsets[v]; j < graph.childOffsets[v + 1]; j++) {
+                int child = graph.childTargets[j];
+                long[] childRow = descendants[child];
+                for (int w = 0; w < words; w++) {
+                    row[w] |= childRow[w];
+                }
+                row[child >>> 6] |= 1L << child;
+            }
+            descendants[v] = row;
+        }
+    }
+
+    // wraps rows loaded from a snapshot
+    TransitiveClosureIndex(long[][] descendants) {
+        this.descendants = descendants;
+    }
+
+    @Override
+    public boolean isAncestor(int ancestorId, int descendantId) {
+        return (descendants[ancestorId][descendantId >>> 6] & (1L << descendantId)) != 0;
+    }
+
+    int size() {
+        return descendants.length;
+    }
+
+    // the descendants of id as a bitset; callers must not modify it
+    long[] descendantBits(int id) {
+        return descendants[id];
+    }
+
+    @Override
+    public long memoryBytes() {
+        return memoryBytes(descendants.length);
+    }
+
+    static long memoryBytes(int n) {
+        return (long) n * (8L * words(n) + 16);
+    }
+
+    private static int words(int n) {
+        return (n + 63) >>> 6;
+    }
+}
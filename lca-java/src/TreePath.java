@@ -0,0 +1,112 @@
+import java.util.Arrays;
+import java.util.List;
+
+// Reusable root-to-node path for BinaryTree. find() walks the tree in preorder with an explicit
+// array-backed stack, so deep or degenerate trees cannot overflow the call stack, and the arrays
+// are kept between searches so repeated queries do not allocate once they have grown to fit.
+final class TreePath {
+
+    private BinaryTreeNode[] nodes = new BinaryTreeNode[64];
+    private byte[] state = new byte[64];    // 0 = not visited, 1 = left done, 2 = right done
+    private int length;
+    private int visited;    // nodes pushed by the last find
+    private int[] below = new int[64];    // targets found under each frame, for commonAncestor
+
+    // Leaves the path from root to the first node (in preorder) holding val; returns false and an
+    // empty path if there is none
+    boolean find(BinaryTreeNode root, int val) {
+        length = 0;
+        visited = 0;
+        if (root == null) return false;
+
+        push(root);
+        while (length > 0) {
+            int top = length - 1;
+            BinaryTreeNode cur = nodes[top];
+
+            if (state[top] == 0) {
+                if (cur.getVal() == val) return true;
+
+                state[top] = 1;
+                if (cur.getlChild() != null) push(cur.getlChild());
+            } else if (state[top] == 1) {
+                state[top] = 2;
+                if (cur.getrChild() != null) push(cur.getrChild());
+            } else {
+                nodes[top] = null;
+                length--;
+            }
+        }
+        return false;
+    }
+
+    // Deepest node whose subtree holds the first node (in preorder) of every value in targets, in
+    // one walk: each stack frame counts the targets found below it and hands the count to its
+    // parent when it is left, and the first frame to reach them all is the LCA. Null if a value
+    // is not in the tree. targets maps each distinct value to a slot in found, which starts false.
+    BinaryTreeNode commonAncestor(BinaryTreeNode root, IntIntHashMap targets, boolean[] found) {
+        length = 0;
+        visited = 0;
+        if (root == null) return null;
+
+        int wanted = targets.size();
+        push(root);
+        while (length > 0) {
+            int top = length - 1;
+            BinaryTreeNode cur = nodes[top];
+
+            if (state[top] == 0) {
+                below[top] = 0;
+                int slot = targets.get(cur.getVal());
+                if (slot != -1 && !found[slot]) {
+                    found[slot] = true;
+                    below[top] = 1;
+                }
+
+                state[top] = 1;
+                if (cur.getlChild() != null) push(cur.getlChild());
+            } else if (state[top] == 1) {
+                state[top] = 2;
+                if (cur.getrChild() != null) push(cur.getrChild());
+            } else {
+                if (below[top] == wanted) {
+                    length = 0;
+                    return cur;
+                }
+                if (top > 0) below[top - 1] += below[top];
+                nodes[top] = null;
+                length--;
+            }
+        }
+        return null;
+    }
+
+    int visited() {
+        return visited;
+    }
+
+    int length() {
+        return length;
+    }
+
+    BinaryTreeNode get(int i) {
+        return nodes[i];
+    }
+
+    // copy of the path, root first
+    List<BinaryTreeNode> toList() {
+        return Arrays.asList(Arrays.copyOf(nodes, length));
+    }
+
+    private void push(BinaryTreeNode node) {
+        if (length == nodes.length) {
+            nodes = Arrays.copyOf(nodes, length * 2);
+            state = Arrays.copyOf(state, length * 2);
+            below = Arrays.copyOf(below, length * 2);
+        }
+        nodes[length] = node;
+        state[length] = 0;
+        length++;
+        visited++;
+    }
+}
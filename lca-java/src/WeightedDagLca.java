@@ -0,0 +1,183 @@
+import java.util.Arrays;
+
+// LCAs of a CompactDag whose edges carry costs. Where getLCAs ranks the common ancestors by the
+// larger number of edges down to the two targets, this ranks them by the cheapest weighted paths,
+// combined with MAX (the worse of the two sides), SUM (total cost) or MIN (the better side).
+//
+// Weights are non-negative doubles aligned with the child rows: weight[j] is the cost of the edge
+// from id to childAt(id, j), for j in [childStart(id), childEnd(id)). They are copied into a
+// reverse (parent) adjacency with the same costs when the engine is built.
+//
+// A query relaxes each target's ancestors once, walking the topological order backwards from the
+// target: when a node is reached its distance is final, since all its descendants come later in
+// the order, and it pushes that distance to its parents. So every common ancestor gets both
+// distances in O(V + E) per target at worst, with no search per candidate and no priority queue.
+// Distances live in per-thread arrays stamped with an epoch, so queries allocate only their
+// result and one engine can serve many threads.
+public class WeightedDagLca {
+
+    public enum Combiner {
+        MAX {
+            @Override
+            public double combine(double cost1, double cost2) {
+                return Math.max(cost1, cost2);
+            }
+        },
+        SUM {
+            @Override
+            public double combine(double cost1, double cost2) {
+                return cost1 + cost2;
+            }
+        },
+        MIN {
+            @Override
+            public double combine(double cost1, double cost2) {
+                return Math.min(cost1, cost2);
+            }
+        };
+
+        public abstract double combine(double cost1, double cost2);
+    }
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final CompactDag graph;
+    private final int[] order;
+    private final int[] position;       // index of each id in order
+
+    // parents of id v are parentTargets[parentOffsets[v] .. parentOffsets[v + 1]) as in the graph,
+    // with the cost of each edge alongside
+    private final double[] parentWeights;
+
+    // Throws IllegalArgumentException if weights do not match the edges or one is negative or NaN,
+    // and IllegalStateException if the graph has a cycle
+    public WeightedDagLca(CompactDag graph, double[] weights) {
+        if (weights.length != graph.edgeCount()) {
+            throw new IllegalArgumentException("Graph has " + graph.edgeCount() + " edges but " + weights.length + " weights");
+        }
+        this.graph = graph;
+        this.order = graph.topologicalOrder();
+        this.position = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            position[order[i]] = i;
+        }
+
+        // CompactDag fills each parent row in parent id order, so the same pass finds every slot
+        int n = graph.size();
+        parentWeights = new double[weights.length];
+        int[] fill = Arrays.copyOf(graph.parentOffsets, n);
+        for (int v = 0; v < n; v++) {
+            for (int j = graph.childOffsets[v]; j < graph.childOffsets[v + 1]; j++) {
+                double weight = weights[j];
+                if (!(weight >= 0)) {
+                    throw new IllegalArgumentException("Edge weight must be non-negative: " + weight);
+                }
+                parentWeights[fill[graph.childTargets[j]]++] = weight;
+            }
+        }
+    }
+
+    // Every edge costs 1, so with MAX the result equals CompactDag.getLCAs
+    public static double[] unitWeights(CompactDag graph) {
+        double[] weights = new double[graph.edgeCount()];
+        Arrays.fill(weights, 1);
+        return weights;
+    }
+
+    public int[] getLCAs(int id1, int id2) {
+        return getLCAs(id1, id2, Combiner.MAX);
+    }
+
+    // Ids of the common strict ancestors of id1 and id2 whose combined cost is lowest, ascending.
+    // Costs are compared exactly, so ancestors tie only when their costs are equal as doubles.
+    public int[] getLCAs(int id1, int id2, Combiner combiner) {
+        Scratch scratch = Scratch.forQuery(graph.size());
+        relaxAncestors(id1, scratch.dist1, scratch.stamp1, scratch.epoch);
+        relaxAncestors(id2, scratch.dist2, scratch.stamp2, scratch.epoch);
+
+        // ancestors of both sit before both targets in the order
+        int last = Math.min(position[id1], position[id2]);
+        int[] best = scratch.best;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int count = 0;
+        for (int i = 0; i < last; i++) {
+            int v = order[i];
+            if (scratch.stamp1[v] != scratch.epoch || scratch.stamp2[v] != scratch.epoch) continue;
+
+            double cost = combiner.combine(scratch.dist1[v], scratch.dist2[v]);
+            if (cost < bestCost) {
+                bestCost = cost;
+                count = 0;
+            }
+            if (cost == bestCost) best[count++] = v;
+        }
+
+        int[] lcas = Arrays.copyOf(best, count);
+        Arrays.sort(lcas);
+        return lcas;
+    }
+
+    // Cost of the cheapest path from ancestorId down to targetId, or infinity if there is none
+    public double distance(int ancestorId, int targetId) {
+        Scratch scratch = Scratch.forQuery(graph.size());
+        relaxAncestors(targetId, scratch.dist1, scratch.stamp1, scratch.epoch);
+        return scratch.stamp1[ancestorId] == scratch.epoch ? scratch.dist1[ancestorId] : Double.POSITIVE_INFINITY;
+    }
+
+    // Stamps target and its ancestors with epoch and their cheapest cost down to target. Nodes are
+    // taken in reverse topological order from target, so a node's descendants are all settled
+    // before it pushes its own distance to its parents.
+    private void relaxAncestors(int target, double[] dist, int[] stamp, int epoch) {
+        stamp[target] = epoch;
+        dist[target] = 0;
+
+        for (int i = position[target]; i >= 0; i--) {
+            int v = order[i];
+            if (stamp[v] != epoch) continue;
+
+            double d = dist[v];
+            for (int j = graph.parentOffsets[v]; j < graph.parentOffsets[v + 1]; j++) {
+                int p = graph.parentTargets[j];
+                double through = d + parentWeights[j];
+                if (stamp[p] != epoch) {
+                    stamp[p] = epoch;
+                    dist[p] = through;
+                } else if (through < dist[p]) {
+                    dist[p] = through;
+                }
+            }
+        }
+    }
+
+    // per-thread distances, reset by bumping the epoch
+    private static final class Scratch {
+
+        double[] dist1 = new double[0];
+        double[] dist2 = new double[0];
+        int[] stamp1 = new int[0];
+        int[] stamp2 = new int[0];
+        int[] best = new int[0];
+        int epoch;
+
+        static Scratch forQuery(int n) {
+            Scratch scratch = SCRATCH.get();
+            if (scratch.stamp1.length < n) {
+                int capacity = Math.max(n, scratch.stamp1.length + (scratch.stamp1.length >> 1));
+                scratch.dist1 = new double[capacity];
+                scratch.dist2 = new double[capacity];
+                scratch.stamp1 = new int[capacity];
+                scratch.stamp2 = new int[capacity];
+                scratch.best = new int[capacity];
+                scratch.epoch = 0;
+            }
+
+            scratch.epoch++;
+            if (scratch.epoch == Integer.MAX_VALUE) {
+                Arrays.fill(scratch.stamp1, 0);
+                Arrays.fill(scratch.stamp2, 0);
+                scratch.epoch = 1;
+            }
+            return scratch;
+        }
+    }
+}